@@ -0,0 +1,133 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 区间租约存储的公共逻辑.
+ * 子类只需要提供在一个原子操作中读取和修改全部区间状态的能力.
+ *
+ * @author agent
+ */
+abstract class AbstractRangeLeaseStore<Id> implements RangeLeaseStore<Id> {
+
+    /**
+     * 在一个原子操作中读取全部区间状态并执行操作, 操作对状态的修改需要被保存
+     */
+    abstract <T> T update(Function<List<RangeState<Id>>, T> operation);
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void initialize(Id start, List<Id> splitPoints, Id end) {
+        checkNotNull(splitPoints);
+        update(states -> {
+            if (states.isEmpty()) {
+                List<Id> bounds = new ArrayList<>(splitPoints.size() + 2);
+                bounds.add(start);
+                bounds.addAll(splitPoints);
+                bounds.add(end);
+                for (int i = 0; i + 1 < bounds.size(); i++) {
+                    RangeState<Id> state = new RangeState<>();
+                    state.start = bounds.get(i);
+                    state.end = bounds.get(i + 1);
+                    states.add(state);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public RangeLease<Id> tryAcquire(String workerId, long leaseMillis) {
+        checkNotNull(workerId);
+        checkArgument(leaseMillis > 0);
+        return update(states -> {
+            long now = now();
+            for (int i = 0; i < states.size(); i++) {
+                RangeState<Id> state = states.get(i);
+                if (state.done || state.owner != null && state.expireAt > now) {
+                    continue;
+                }
+                state.owner = workerId;
+                state.token++;
+                state.expireAt = now + leaseMillis;
+                return new RangeLease<>(i, state.start, state.end, state.lastProcessed, workerId,
+                        state.token);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean checkpoint(RangeLease<Id> lease, Id lastProcessed, long leaseMillis) {
+        checkNotNull(lastProcessed);
+        return update(states -> {
+            RangeState<Id> state = held(states, lease);
+            if (state == null) {
+                return false;
+            }
+            state.lastProcessed = lastProcessed;
+            state.expireAt = now() + leaseMillis;
+            return true;
+        });
+    }
+
+    @Override
+    public boolean complete(RangeLease<Id> lease) {
+        return update(states -> {
+            RangeState<Id> state = held(states, lease);
+            if (state == null) {
+                return false;
+            }
+            state.done = true;
+            state.owner = null;
+            return true;
+        });
+    }
+
+    @Override
+    public void release(RangeLease<Id> lease) {
+        update(states -> {
+            RangeState<Id> state = held(states, lease);
+            if (state != null) {
+                state.owner = null;
+                state.expireAt = 0;
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return update(states -> !states.isEmpty() && states.stream().allMatch(s -> s.done));
+    }
+
+    /**
+     * 令牌一致说明区间在此之后没有被其它节点获取过, 即使租约已经过期也允许继续
+     */
+    private RangeState<Id> held(List<RangeState<Id>> states, RangeLease<Id> lease) {
+        RangeState<Id> state = states.get(lease.getRangeIndex());
+        if (state.done || state.token != lease.getToken()) {
+            return null;
+        }
+        return state;
+    }
+
+    static final class RangeState<Id> {
+
+        Id start;
+        Id end;
+        Id lastProcessed;
+        boolean done;
+        String owner;
+        long token;
+        long expireAt;
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.phantomthief.util;
+
+import java.util.List;
+
+import com.github.phantomthief.util.BatchingCursorDAO.CursorRequest;
+
+/**
+ * 一次读取多个游标请求的列表数据访问对象接口，例如多游标查询或者一次Redis pipeline
+ *
+ * @author agent
+ * @see BatchingCursorDAO
+ */
+public interface BatchGetByCursorDAO<Id, Entity> {
+
+    /**
+     * 批量读取，每个请求的语义与{@link GetByCursorDAO#getByCursor}相同
+     *
+     * @param requests 游标请求列表
+     * @return 与请求列表一一对应的结果列表
+     */
+    List<List<Entity>> getByCursors(List<CursorRequest<Id>> requests);
+}
@@ -0,0 +1,327 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+/**
+ * 跨迭代器合并请求的列表数据访问对象
+ * <p>多个游标迭代器（通常在不同的线程上）同时调用{@link #getByCursor}时，在一个很短的时间窗口内（或者凑满一批时）
+ * 把这些请求合并为一次{@link BatchGetByCursorDAO#getByCursors}调用，再把结果分别交给各个调用方</p>
+ * <pre>{@code
+ * BatchingCursorDAO<Integer, Feed> batchingDAO = BatchingCursorDAO.<Integer, Feed> newBuilder()
+ *         .maxBatchSize(100)
+ *         .maxDelay(1, MILLISECONDS)
+ *         .build(feedRepository::multiGetByCursors);
+ * // 每个会话各自构造游标迭代器，共享同一个batchingDAO
+ * CursorIterator<Integer, Feed> feeds = CursorIterator.<Integer, Feed> newGenericBuilder()
+ *         .start(cursor)
+ *         .cursorExtractor(Feed::getId)
+ *         .buildEx(batchingDAO);
+ * }</pre>
+ * <p>等待超时后的批量读取默认在一个独立的执行器上执行，即使所有调用方都阻塞在默认执行器
+ * （{@link CursorIterator#prefetch}等）的线程上，批量读取也不会排不上队；调用方最多等待{@link Builder#timeout}</p>
+ *
+ * @param <Id> ID类型泛型
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public class BatchingCursorDAO<Id, Entity> implements GetByCursorDAO<Id, Entity> {
+
+    private final BatchGetByCursorDAO<Id, Entity> batchDAO;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long timeoutNanos;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    private final Object lock = new Object();
+    private Batch currentBatch;
+
+    private BatchingCursorDAO(Builder<Id, Entity> builder) {
+        this.batchDAO = builder.batchDAO;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxDelayNanos = builder.maxDelayNanos;
+        this.timeoutNanos = builder.timeoutNanos;
+        this.scheduler = builder.scheduler;
+        this.executor = builder.executor;
+    }
+
+    /**
+     * 创建合并请求数据访问对象的构造器
+     *
+     * @param <I> ID泛型类型
+     * @param <E> 实体对象的泛型类型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <I, E> Builder<I, E> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 提交请求并等待所在批次的结果
+     *
+     * @throws UncheckedTimeoutException 所在批次没有在{@link Builder#timeout}内完成
+     */
+    @Override
+    public List<Entity> getByCursor(@Nullable Id cursor, int limit) {
+        CursorRequest<Id> request = new CursorRequest<>(cursor, limit);
+        Batch fullBatch = null;
+        Batch batch;
+        int index;
+        synchronized (lock) {
+            if (currentBatch == null) {
+                currentBatch = new Batch();
+                Batch scheduled = currentBatch;
+                scheduler.schedule(() -> executor.execute(() -> flush(scheduled)),
+                        maxDelayNanos, NANOSECONDS);
+            }
+            batch = currentBatch;
+            index = batch.requests.size();
+            batch.requests.add(request);
+            if (batch.requests.size() >= maxBatchSize) {
+                currentBatch = null;
+                fullBatch = batch;
+            }
+        }
+        if (fullBatch != null) {
+            // 凑满一批的调用方直接在当前线程执行
+            fullBatch.dispatch();
+        }
+        return awaitResult(batch).get(index);
+    }
+
+    private List<List<Entity>> awaitResult(Batch batch) {
+        try {
+            return getUninterruptibly(batch.result, timeoutNanos, NANOSECONDS);
+        } catch (ExecutionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new UncheckedExecutionException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new UncheckedTimeoutException("batch not completed in "
+                    + NANOSECONDS.toMillis(timeoutNanos)
+                    + "ms, check the batch dao and the flush executor.", e);
+        }
+    }
+
+    private void flush(Batch batch) {
+        synchronized (lock) {
+            if (currentBatch != batch) {
+                // 已经因为凑满而提前执行了
+                return;
+            }
+            currentBatch = null;
+        }
+        batch.dispatch();
+    }
+
+    /**
+     * 单个游标请求
+     *
+     * @param <Id> ID类型泛型
+     */
+    public static final class CursorRequest<Id> {
+
+        private final Id cursor;
+        private final int limit;
+
+        private CursorRequest(Id cursor, int limit) {
+            this.cursor = cursor;
+            this.limit = limit;
+        }
+
+        /**
+         * @return 起始游标，包括
+         */
+        @Nullable
+        public Id getCursor() {
+            return cursor;
+        }
+
+        /**
+         * @return 返回记录数
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        @Override
+        public String toString() {
+            return "CursorRequest [cursor=" + cursor + ", limit=" + limit + "]";
+        }
+    }
+
+    private final class Batch {
+
+        private final List<CursorRequest<Id>> requests = new ArrayList<>();
+        private final CompletableFuture<List<List<Entity>>> result = new CompletableFuture<>();
+
+        private void dispatch() {
+            try {
+                List<List<Entity>> lists = batchDAO.getByCursors(requests);
+                checkNotNull(lists, "batch result is null.");
+                if (lists.size() != requests.size()) {
+                    throw new IllegalStateException("batch result size mismatch, requests:"
+                            + requests.size() + ", results:" + lists.size());
+                }
+                result.complete(lists);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 合并请求数据访问对象构造器
+     *
+     * @param <Id> ID泛型类型
+     * @param <Entity> 实体对象泛型类型
+     */
+    public static final class Builder<Id, Entity> {
+
+        private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+        private static final long DEFAULT_MAX_DELAY_NANOS = MILLISECONDS.toNanos(1);
+        private static final long DEFAULT_TIMEOUT_NANOS = SECONDS.toNanos(30);
+
+        private BatchGetByCursorDAO<Id, Entity> batchDAO;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private long maxDelayNanos = DEFAULT_MAX_DELAY_NANOS;
+        private long timeoutNanos = DEFAULT_TIMEOUT_NANOS;
+        private ScheduledExecutorService scheduler;
+        private Executor executor;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置一批最多合并的请求数，凑满时立即执行，默认为100
+         *
+         * @param maxBatchSize 一批最多合并的请求数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> maxBatchSize(int maxBatchSize) {
+            checkArgument(maxBatchSize > 0);
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * 设置一批中第一个请求最多等待的时间，默认为1毫秒
+         *
+         * @param maxDelay 最多等待的时间
+         * @param unit 时间单位
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> maxDelay(long maxDelay, @Nonnull TimeUnit unit) {
+            checkArgument(maxDelay >= 0);
+            this.maxDelayNanos = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * 设置调用方等待所在批次结果的最长时间，超时抛出{@link UncheckedTimeoutException}，默认为30秒
+         * <p>包括凑批的等待和批量读取本身的耗时；超时后批量读取仍可能执行，结果被丢弃</p>
+         *
+         * @param timeout 最长等待时间
+         * @param unit 时间单位
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> timeout(long timeout, @Nonnull TimeUnit unit) {
+            checkArgument(timeout > 0);
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * 设置触发等待超时的调度器，默认使用一个共享的守护线程
+         *
+         * @param scheduler 调度器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> scheduler(@Nonnull ScheduledExecutorService scheduler) {
+            this.scheduler = checkNotNull(scheduler);
+            return this;
+        }
+
+        /**
+         * 设置等待超时后执行批量读取的执行器，默认使用所有合并请求数据访问对象共享的独立执行器
+         * <p>不要使用调用{@link BatchingCursorDAO#getByCursor}的线程所在的有界线程池：所有线程都阻塞在等待结果上时，
+         * 批量读取没有线程可以执行，只能等到超时</p>
+         *
+         * @param executor 执行器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> executor(@Nonnull Executor executor) {
+            this.executor = checkNotNull(executor);
+            return this;
+        }
+
+        /**
+         * 构造合并请求数据访问对象
+         *
+         * @param batchDAO 批量读取的数据访问对象
+         * @return 合并请求数据访问对象
+         */
+        @Nonnull
+        public BatchingCursorDAO<Id, Entity>
+        build(@Nonnull BatchGetByCursorDAO<Id, Entity> batchDAO) {
+            this.batchDAO = checkNotNull(batchDAO);
+            if (scheduler == null) {
+                scheduler = Holder.SCHEDULER;
+            }
+            if (executor == null) {
+                executor = Holder.FLUSH_EXECUTOR;
+            }
+            return new BatchingCursorDAO<>(this);
+        }
+    }
+
+    private static final class Holder {
+
+        private static final ScheduledExecutorService SCHEDULER = newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("batching-cursor-dao-scheduler")
+                        .setDaemon(true)
+                        .build());
+
+        /**
+         * 与迭代器使用的默认执行器分开, 批量读取不会排在阻塞等待它的调用方后面
+         */
+        private static final Executor FLUSH_EXECUTOR = DefaultExecutors
+                .newExecutor("batching-cursor-dao-flush-%d");
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.phantomthief.util;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * 支持结束游标的列表数据访问对象接口
+ * <p>设置了{@link CursorIterator.GenericBuilder#end}时，遍历会把结束游标传给数据访问对象，
+ * 数据库在结束游标处停止读取，而不是读满一页再由迭代器丢弃</p>
+ *
+ * @author agent
+ */
+public interface BoundedGetByCursorDAO<Id, Entity> extends GetByCursorDAO<Id, Entity> {
+
+    /**
+     * 从指定的游标开始（包括），到结束游标为止（不包括），读取至多limit条记录作为列表返回
+     *
+     * @param cursor 起始游标，包括
+     * @param end 结束游标，不包括；为null时没有上界
+     * @param limit 返回记录数
+     */
+    List<Entity> getByCursor(@Nullable Id cursor, @Nullable Id end, int limit);
+
+    @Override
+    default List<Entity> getByCursor(@Nullable Id cursor, int limit) {
+        return getByCursor(cursor, null, limit);
+    }
+}
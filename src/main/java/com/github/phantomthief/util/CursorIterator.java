@@ -4,22 +4,29 @@ import static com.github.phantomthief.util.PageScroller.MODE_TRIM_FIRST;
 import static com.github.phantomthief.util.PageScroller.MODE_TRIM_LAST;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static java.util.Spliterator.IMMUTABLE;
-import static java.util.Spliterator.NONNULL;
-import static java.util.Spliterator.ORDERED;
-import static java.util.Spliterators.spliteratorUnknownSize;
+import static com.google.common.base.Preconditions.checkState;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.IntSupplier;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
-import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
 
 /**
  * 游标迭代器
@@ -68,10 +75,10 @@ import com.google.common.collect.AbstractIterator;
 public class CursorIterator<Id, Entity> implements Iterable<Entity> {
 
     private static final int DEFAULT_BUFFER_SIZE = 30;
-    private final PageScroller<Id, Entity> pageScroller;
+    private final Iterable<List<Entity>> pages;
 
-    private CursorIterator(PageScroller<Id, Entity> pageScroller) {
-        this.pageScroller = pageScroller;
+    CursorIterator(Iterable<List<Entity>> pages) {
+        this.pages = pages;
     }
 
     /**
@@ -105,23 +112,141 @@ public class CursorIterator<Id, Entity> implements Iterable<Entity> {
     @Nonnull
     @Override
     public Iterator<Entity> iterator() {
-        return new AbstractIterator<Entity>() {
-
-            private final Iterator<List<Entity>> pageIterator = pageScroller.iterator();
-            private Iterator<Entity> entityIteratorInPage;
-
-            @Override
-            protected Entity computeNext() {
-                if (entityIteratorInPage == null || !entityIteratorInPage.hasNext()) {
-                    if (pageIterator.hasNext()) {
-                        entityIteratorInPage = pageIterator.next().iterator();
-                    } else {
-                        return endOfData();
-                    }
-                }
-                return entityIteratorInPage.next();
-            }
+        return new EntityIterator<>(PageCursor.of(pages));
+    }
+
+    /**
+     * 按页批量转换实体，每页只调用一次批量加载函数（例如根据一页的ID批量读取关联数据），避免逐条读取
+     *
+     * @param batchLoader 批量加载函数，传入一页的实体列表，返回转换后的列表，顺序即为迭代顺序
+     * @param <R> 转换后的实体类型
+     * @return 转换后的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R>
+    mapPages(@Nonnull Function<? super List<Entity>, ? extends List<R>> batchLoader) {
+        checkNotNull(batchLoader);
+        return new CursorIterator<>(Iterables.transform(pages, batchLoader::apply));
+    }
+
+    /**
+     * 按页批量转换实体，批量加载函数在默认执行器上异步执行，第N页的转换与第N+1页的读取同时进行
+     * <p>默认执行器在JDK 21及以上使用虚拟线程，在Java 8上使用有界的平台线程池</p>
+     *
+     * @param batchLoader 批量加载函数，传入一页的实体列表，返回转换后的列表
+     * @param parallelism 最多同时在转换中（已提交但还未被消费）的页数，大于等于1；大于等于2时才会与下一页的读取并行
+     * @param <R> 转换后的实体类型
+     * @return 转换后的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R> mapPages(
+            @Nonnull Function<? super List<Entity>, ? extends List<R>> batchLoader,
+            int parallelism) {
+        return mapPages(batchLoader, DefaultExecutors.shared(), parallelism);
+    }
+
+    /**
+     * 按页批量转换实体，批量加载函数在指定的执行器上异步执行，第N页的转换与第N+1页的读取同时进行
+     * <p>返回结果的顺序与原始分页顺序一致</p>
+     * <p>中途放弃迭代（break、{@link Stream#limit}）时，已经提交的最多parallelism页的转换不会被取消，会在执行器上执行完后被丢弃</p>
+     *
+     * @param batchLoader 批量加载函数，传入一页的实体列表，返回转换后的列表
+     * @param executor 执行批量加载函数的执行器
+     * @param parallelism 最多同时在转换中（已提交但还未被消费）的页数，大于等于1；大于等于2时才会与下一页的读取并行
+     * @param <R> 转换后的实体类型
+     * @return 转换后的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R> mapPages(
+            @Nonnull Function<? super List<Entity>, ? extends List<R>> batchLoader,
+            @Nonnull Executor executor, int parallelism) {
+        checkNotNull(batchLoader);
+        checkNotNull(executor);
+        checkArgument(parallelism > 0);
+        return new CursorIterator<>(() -> new PipelinedIterator<>(pages.iterator(), batchLoader,
+                executor, parallelism));
+    }
+
+    /**
+     * 嵌套扇出遍历：对每条实体通过工厂函数构造一个内层游标迭代器，在默认执行器上最多同时进行concurrency个内层遍历，按外层顺序输出
+     * <p>例如遍历每个用户的订单：</p>
+     * <pre>{@code
+     * CursorIterator<Integer, Order> orders = users.flatMapScan(user -> CursorIterator
+     *         .<Long, Order> newGenericBuilder()
+     *         .cursorExtractor(Order::getId)
+     *         .buildEx((cursor, limit) -> orderDAO.getOrders(user.getId(), cursor, limit)),
+     *         8);
+     * }</pre>
+     *
+     * @param innerScan 内层遍历工厂函数，在调用线程上执行
+     * @param concurrency 最多同时进行的内层遍历数，大于等于1
+     * @param <R> 内层实体类型
+     * @return 所有内层实体的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R> flatMapScan(
+            @Nonnull Function<? super Entity, ? extends CursorIterator<?, ? extends R>> innerScan,
+            int concurrency) {
+        return flatMapScan(innerScan, concurrency, true);
+    }
+
+    /**
+     * 嵌套扇出遍历，在默认执行器上最多同时进行concurrency个内层遍历
+     * <p>内层读取在单独的默认执行器上执行，内层遍历可以使用默认执行器预读或者按页转换；
+     * 内层遍历本身是使用默认执行器的嵌套扇出遍历时，需要为其中一层指定执行器，否则遍历时抛出{@link IllegalStateException}</p>
+     *
+     * @param innerScan 内层遍历工厂函数，在调用线程上执行
+     * @param concurrency 最多同时进行的内层遍历数，大于等于1
+     * @param ordered true时按外层顺序输出（每个内层遍历最多提前读取2页）；false时哪一页先读完就先输出哪一页
+     * @param <R> 内层实体类型
+     * @return 所有内层实体的游标迭代器
+     * @see #flatMapScan(Function, int)
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R> flatMapScan(
+            @Nonnull Function<? super Entity, ? extends CursorIterator<?, ? extends R>> innerScan,
+            int concurrency, boolean ordered) {
+        return flatMapScan(innerScan, DefaultExecutors.nested(), concurrency, ordered, null);
+    }
+
+    /**
+     * 嵌套扇出遍历，在指定的执行器上最多同时进行concurrency个内层遍历
+     * <p>外层在调用线程上遍历；同一个内层遍历的读取依次串行执行，内层的数据访问对象不需要是线程安全的</p>
+     * <p>内层读取会阻塞等待内层遍历的预读、按页转换任务，这些任务不能提交到同一个有界的执行器上，否则执行器占满时会死锁</p>
+     *
+     * @param innerScan 内层遍历工厂函数，在调用线程上执行
+     * @param executor 执行内层读取的执行器
+     * @param concurrency 最多同时进行的内层遍历数，大于等于1
+     * @param ordered true时按外层顺序输出（每个内层遍历最多提前读取2页）；false时哪一页先读完就先输出哪一页
+     * @param fetchPermits 内层每次读取页时占用一个许可（在调用线程上提交读取之前获取，读取完成后释放），
+     * 多个遍历共享同一个信号量即可限制全局同时进行的读取数；为null时不限制
+     * @param <R> 内层实体类型
+     * @return 所有内层实体的游标迭代器
+     * @see #flatMapScan(Function, int)
+     */
+    @SuppressWarnings("unchecked")
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R> flatMapScan(
+            @Nonnull Function<? super Entity, ? extends CursorIterator<?, ? extends R>> innerScan,
+            @Nonnull Executor executor, int concurrency, boolean ordered,
+            @Nullable Semaphore fetchPermits) {
+        checkNotNull(innerScan);
+        checkNotNull(executor);
+        checkArgument(concurrency > 0);
+        Function<Entity, Iterator<List<R>>> innerPages = entity -> {
+            CursorIterator<?, ? extends R> inner = innerScan.apply(entity);
+            return ((Iterable<List<R>>) (Iterable<?>) inner.pages).iterator();
         };
+        // 外层按页遍历, 不会复用缓冲区和回收实体, 工厂函数可以在内层遍历中持有外层实体
+        Iterable<Entity> outer = Iterables.concat(pages);
+        return new CursorIterator<>(() -> new FlatMapScanIterator<>(outer.iterator(), innerPages,
+                executor, concurrency, ordered, fetchPermits));
     }
 
     /**
@@ -130,8 +255,204 @@ public class CursorIterator<Id, Entity> implements Iterable<Entity> {
      * @return 返回一个Stream对象
      */
     public Stream<Entity> stream() {
-        return StreamSupport
-                .stream(spliteratorUnknownSize(iterator(), (NONNULL | IMMUTABLE | ORDERED)), false);
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * 获取按页遍历的Spliterator，批量遍历时逐页直接访问页内元素
+     *
+     * @return 返回Spliterator对象
+     */
+    @Nonnull
+    @Override
+    public Spliterator<Entity> spliterator() {
+        return new PageSpliterator<>(PageCursor.of(pages));
+    }
+
+    /**
+     * 两阶段遍历：当前迭代器只读取轻量的键（或摘要）对象来推进游标和过滤，每页只为过滤后留下的键调用一次批量加载函数读取完整实体
+     * <p>例如：</p>
+     * <pre>{@code
+     * CursorIterator<Integer, Order> orders = CursorIterator.<Integer, OrderKey> newGenericBuilder()
+     *         .start(1)
+     *         .cursorExtractor(OrderKey::getId)
+     *         .buildEx(orderRepository::findKeys)
+     *         .hydrate(key -> key.getStatus() == PAID, orderRepository::findByKeys);
+     * }</pre>
+     * <p>过滤后没有剩余的页不会调用批量加载函数</p>
+     *
+     * @param filter 键过滤器，返回true的键才会加载完整实体
+     * @param hydrator 批量加载函数，传入一页过滤后的键，返回完整实体的列表
+     * @param <R> 完整实体类型
+     * @return 完整实体的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R> hydrate(@Nonnull Predicate<? super Entity> filter,
+            @Nonnull Function<? super List<Entity>, ? extends List<R>> hydrator) {
+        return filterPages(filter).mapPages(hydrator);
+    }
+
+    /**
+     * 两阶段遍历，批量加载函数在默认执行器上异步执行，第N页的加载与第N+1页键的读取同时进行
+     *
+     * @param filter 键过滤器，返回true的键才会加载完整实体
+     * @param hydrator 批量加载函数，传入一页过滤后的键，返回完整实体的列表
+     * @param parallelism 最多同时在加载中的页数，大于等于1；大于等于2时才会与下一页的读取并行
+     * @param <R> 完整实体类型
+     * @return 完整实体的游标迭代器
+     * @see #hydrate(Predicate, Function)
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R> hydrate(@Nonnull Predicate<? super Entity> filter,
+            @Nonnull Function<? super List<Entity>, ? extends List<R>> hydrator,
+            int parallelism) {
+        return filterPages(filter).mapPages(hydrator, parallelism);
+    }
+
+    /**
+     * 两阶段遍历，批量加载函数在指定的执行器上异步执行，第N页的加载与第N+1页键的读取同时进行
+     *
+     * @param filter 键过滤器，返回true的键才会加载完整实体
+     * @param hydrator 批量加载函数，传入一页过滤后的键，返回完整实体的列表
+     * @param executor 执行批量加载函数的执行器
+     * @param parallelism 最多同时在加载中的页数，大于等于1；大于等于2时才会与下一页的读取并行
+     * @param <R> 完整实体类型
+     * @return 完整实体的游标迭代器
+     * @see #hydrate(Predicate, Function)
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <R> CursorIterator<Id, R> hydrate(@Nonnull Predicate<? super Entity> filter,
+            @Nonnull Function<? super List<Entity>, ? extends List<R>> hydrator,
+            @Nonnull Executor executor, int parallelism) {
+        return filterPages(filter).mapPages(hydrator, executor, parallelism);
+    }
+
+    /**
+     * 按页过滤，并跳过过滤后为空的页；游标仍由过滤前的页推进
+     */
+    private CursorIterator<Id, Entity> filterPages(Predicate<? super Entity> filter) {
+        checkNotNull(filter);
+        Iterable<List<Entity>> filtered = Iterables.transform(pages, page -> {
+            List<Entity> survivors = new ArrayList<>(page.size());
+            for (Entity entity : page) {
+                if (filter.test(entity)) {
+                    survivors.add(entity);
+                }
+            }
+            return survivors;
+        });
+        return new CursorIterator<>(Iterables.filter(filtered, page -> !page.isEmpty()));
+    }
+
+    /**
+     * 在默认执行器上提前读取后面的页，当前页的消费与后面页的读取同时进行
+     *
+     * @param pages 最多提前读取的页数，大于等于1
+     * @return 预读的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public CursorIterator<Id, Entity> prefetch(int pages) {
+        return prefetch(pages, DefaultExecutors.shared());
+    }
+
+    /**
+     * 在指定的执行器上提前读取后面的页，当前页的消费与后面页的读取同时进行
+     * <p>同一个迭代器的读取在执行器上依次串行执行，数据访问对象不需要是线程安全的</p>
+     *
+     * @param pages 最多提前读取的页数，大于等于1
+     * @param executor 执行读取的执行器
+     * @return 预读的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public CursorIterator<Id, Entity> prefetch(int pages, @Nonnull Executor executor) {
+        checkArgument(pages > 0);
+        checkNotNull(executor);
+        Iterable<List<Entity>> source = this.pages;
+        return new CursorIterator<>(
+                () -> new PrefetchIterator<>(source.iterator(), executor, pages));
+    }
+
+    /**
+     * 记录迭代过程中读取的每一页，再次迭代时直接从记录中读取，不会重复访问数据访问对象
+     * <p>注意：全部页都保存在内存中，数据量较大时请使用{@link #memoize(long, PageSerializer)}</p>
+     *
+     * @return 可重复迭代而不重复读取的游标迭代器，不再使用时调用{@link MemoizedCursorIterator#close()}释放记录
+     */
+    @CheckReturnValue
+    @Nonnull
+    public MemoizedCursorIterator<Id, Entity> memoize() {
+        return new MemoizedCursorIterator<>(new MemoizedPages<>(pages, Long.MAX_VALUE, null));
+    }
+
+    /**
+     * 记录迭代过程中读取的每一页，再次迭代时直接从记录中读取，不会重复访问数据访问对象
+     * <p>内存中最多保存maxHeapEntities条实体，超出的页通过序列化器写入临时文件，读取时使用内存映射；
+     * 临时文件占用一个文件句柄，调用{@link MemoizedCursorIterator#close()}时关闭并删除</p>
+     *
+     * @param maxHeapEntities 内存中最多保存的实体数
+     * @param serializer 页序列化器
+     * @return 可重复迭代而不重复读取的游标迭代器，不再使用时需要关闭
+     */
+    @CheckReturnValue
+    @Nonnull
+    public MemoizedCursorIterator<Id, Entity> memoize(long maxHeapEntities,
+            @Nonnull PageSerializer<Entity> serializer) {
+        checkArgument(maxHeapEntities >= 0);
+        checkNotNull(serializer);
+        return new MemoizedCursorIterator<>(
+                new MemoizedPages<>(pages, maxHeapEntities, serializer));
+    }
+
+    /**
+     * 按下标遍历页内元素的迭代器，页与页之间不创建任何包装对象
+     */
+    private static final class EntityIterator<E> implements Iterator<E> {
+
+        private final PageCursor<E> pageCursor;
+        private List<E> page;
+        private int index;
+        private int end;
+
+        EntityIterator(PageCursor<E> pageCursor) {
+            this.pageCursor = pageCursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < end || nextPage();
+        }
+
+        @Override
+        public E next() {
+            if (index >= end && !nextPage()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(index++);
+        }
+
+        private boolean nextPage() {
+            if (!pageCursor.advance()) {
+                page = null;
+                index = end = 0;
+                return false;
+            }
+            if (pageCursor.page instanceof RandomAccess) {
+                page = pageCursor.page;
+                index = pageCursor.from;
+                end = pageCursor.to;
+            } else {
+                // 非随机访问的页只拷贝一次，保证按下标访问是常数时间
+                page = new ArrayList<>(pageCursor.current());
+                index = 0;
+                end = page.size();
+            }
+            return true;
+        }
     }
 
     /**
@@ -171,6 +492,22 @@ public class CursorIterator<Id, Entity> implements Iterable<Entity> {
             return builder.buildEx(dao);
         }
 
+        /**
+         * 构造复用页缓冲区的游标迭代器，游标的推进方式与{@link #buildEx}相同
+         * <p>逐条遍历（{@link CursorIterator#iterator()}、{@link CursorIterator#stream()}）时，
+         * 同一个缓冲区在页与页之间反复填充，迭代器离开一页后该页的实体交给{@link #recycler}回收；
+         * 并行流不会被切分（切分出的实体会在读取下一页时被回收），只在一个线程上遍历；
+         * 按页转换（{@link CursorIterator#mapPages}、{@link CursorIterator#prefetch}、
+         * {@link CursorIterator#memoize}等）时，页会被保存到转换之后，所以每页使用新的缓冲区，也不会回收实体</p>
+         *
+         * @param dao 向缓冲区中填充数据的游标数据访问对象
+         * @return 构造的游标迭代器对象
+         */
+        @Nonnull
+        public CursorIterator<Id, Entity> buildReusing(FillingCursorDAO<? super Id, Entity> dao) {
+            return builder.buildReusing(dao);
+        }
+
         /**
          * 设置游标提取函数
          *
@@ -198,6 +535,47 @@ public class CursorIterator<Id, Entity> implements Iterable<Entity> {
             return this;
         }
 
+        /**
+         * 设置结束ID（不包括），遍历到大于等于此ID的记录时停止，不会再读取后面的页
+         * <p>数据访问对象实现了{@link BoundedGetByCursorDAO}时，结束ID会传给数据访问对象，由数据库在结束ID处停止读取</p>
+         *
+         * @param end 结束ID
+         * @return 当前构造器对象
+         * @see #comparator
+         */
+        @CheckReturnValue
+        @Nonnull
+        public GenericBuilder<Id, Entity> end(@Nonnull Id end) {
+            builder.end(end);
+            return this;
+        }
+
+        /**
+         * 设置比较结束ID时使用的比较器，不设置时ID需要实现{@link Comparable}
+         *
+         * @param comparator ID比较器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public GenericBuilder<Id, Entity> comparator(@Nonnull Comparator<? super Id> comparator) {
+            builder.comparator(comparator);
+            return this;
+        }
+
+        /**
+         * 设置停止条件，遍历到第一条满足条件的记录时停止（不包括这一条），不会再读取后面的页
+         *
+         * @param until 停止条件
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public GenericBuilder<Id, Entity> until(@Nonnull Predicate<? super Entity> until) {
+            builder.until(until);
+            return this;
+        }
+
         /**
          * 设置一次取列表数据返回的记录数
          *
@@ -236,6 +614,52 @@ public class CursorIterator<Id, Entity> implements Iterable<Entity> {
             builder.maxNumberOfPages(maxNumberOfPages);
             return this;
         }
+
+        /**
+         * 设置遍历进度，每消费完一页更新一次，可以在其它线程上读取，含义见{@link ScanProgress}
+         *
+         * @param progress 遍历进度
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public GenericBuilder<Id, Entity> progress(@Nonnull ScanProgress<? super Id> progress) {
+            builder.progress(progress);
+            return this;
+        }
+
+        /**
+         * 设置实体回收函数，只对{@link #buildReusing}生效
+         * <p>迭代器离开一页后，对这一页（包括用于推进游标而多读的一条）的每个实体调用一次；
+         * 遍历到末尾或者遇到结束条件时最后一页也会被回收，提前结束遍历（break、{@link Stream#limit}）时最后一页不会被回收</p>
+         * <p>用于可变的享元实体：回收函数把实体放回对象池，数据访问对象填充时从对象池中取出复用。
+         * 被回收的实体不能再被调用方持有</p>
+         *
+         * @param recycler 实体回收函数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public GenericBuilder<Id, Entity> recycler(@Nonnull Consumer<? super Entity> recycler) {
+            builder.recycler(recycler);
+            return this;
+        }
+
+        /**
+         * 设置写缓冲，只能用于{@link #buildEx}和{@link #buildReusing}
+         * <p>每离开一页（读取下一页之前）把缓冲中的修改批量写入一次，遍历到末尾时写入剩余的修改并等待完成；
+         * 用于{@link #buildReusing}时每页的批量写入完成后才读取（回收）下一页</p>
+         *
+         * @param writeBehind 写缓冲
+         * @return 当前构造器对象
+         * @see WriteBehindBuffer
+         */
+        @CheckReturnValue
+        @Nonnull
+        public GenericBuilder<Id, Entity> writeBehind(@Nonnull WriteBehindBuffer<?> writeBehind) {
+            builder.writeBehind(writeBehind);
+            return this;
+        }
     }
 
     /**
@@ -246,11 +670,18 @@ public class CursorIterator<Id, Entity> implements Iterable<Entity> {
     public static class Builder<Id, Entity> {
 
         private GetByCursorDAO<Id, Entity> dao;
+        private FillingCursorDAO<Id, Entity> fillingDao;
         private IntSupplier bufferSize;
         private Function<Entity, Id> function;
         private Id init;
         private int maxNumberOfPages = 0;
         private boolean mode = MODE_TRIM_FIRST;
+        private ScanProgress<? super Id> progress;
+        private Consumer<? super Entity> recycler;
+        private Id end;
+        private Comparator<? super Id> comparator;
+        private Predicate<? super Entity> until;
+        private WriteBehindBuffer<?> writeBehind;
 
         /**
          * 使用 {@link #buildEx} 代替，后者在迭代中删除是友好的
@@ -269,6 +700,15 @@ public class CursorIterator<Id, Entity> implements Iterable<Entity> {
             return build(dao);
         }
 
+        @Nonnull
+        public <I, E> CursorIterator<I, E> buildReusing(FillingCursorDAO<? super I, E> dao) {
+            Builder<I, E> thisBuilder = (Builder<I, E>) this;
+            checkNotNull(dao);
+            thisBuilder.fillingDao = (FillingCursorDAO<I, E>) dao;
+            thisBuilder.mode = MODE_TRIM_LAST;
+            return thisBuilder.build();
+        }
+
         @CheckReturnValue
         @Nonnull
         public Builder<Id, Entity> bufferSize(int bufferSize) {
@@ -307,19 +747,84 @@ public class CursorIterator<Id, Entity> implements Iterable<Entity> {
             return thisBuilder;
         }
 
+        @CheckReturnValue
+        @Nonnull
+        public <I, E> Builder<I, E> progress(@Nonnull ScanProgress<? super I> progress) {
+            Builder<I, E> thisBuilder = (Builder<I, E>) this;
+            thisBuilder.progress = checkNotNull(progress);
+            return thisBuilder;
+        }
+
+        @CheckReturnValue
+        @Nonnull
+        public <I, E> Builder<I, E> recycler(@Nonnull Consumer<? super E> recycler) {
+            Builder<I, E> thisBuilder = (Builder<I, E>) this;
+            thisBuilder.recycler = checkNotNull(recycler);
+            return thisBuilder;
+        }
+
+        @CheckReturnValue
+        @Nonnull
+        public <I, E> Builder<I, E> end(@Nonnull I end) {
+            Builder<I, E> thisBuilder = (Builder<I, E>) this;
+            thisBuilder.end = checkNotNull(end);
+            return thisBuilder;
+        }
+
+        @CheckReturnValue
+        @Nonnull
+        public <I, E> Builder<I, E> comparator(@Nonnull Comparator<? super I> comparator) {
+            Builder<I, E> thisBuilder = (Builder<I, E>) this;
+            thisBuilder.comparator = checkNotNull(comparator);
+            return thisBuilder;
+        }
+
+        @CheckReturnValue
+        @Nonnull
+        public <I, E> Builder<I, E> until(@Nonnull Predicate<? super E> until) {
+            Builder<I, E> thisBuilder = (Builder<I, E>) this;
+            thisBuilder.until = checkNotNull(until);
+            return thisBuilder;
+        }
+
+        @CheckReturnValue
+        @Nonnull
+        public <I, E> Builder<I, E> writeBehind(@Nonnull WriteBehindBuffer<?> writeBehind) {
+            Builder<I, E> thisBuilder = (Builder<I, E>) this;
+            thisBuilder.writeBehind = checkNotNull(writeBehind);
+            return thisBuilder;
+        }
+
         private CursorIterator<Id, Entity> build() {
             ensure();
-            PageScroller<Id, Entity> scroller = new PageScroller<>(dao, init, bufferSize, function,
-                    mode);
+            PageScroller<Id, Entity> scroller;
+            if (fillingDao != null) {
+                scroller = new PageScroller<>(fillingDao, init, bufferSize, function);
+                scroller.setRecycler(recycler);
+            } else {
+                scroller = new PageScroller<>(dao, init, bufferSize, function, mode);
+            }
             if (maxNumberOfPages > 0) {
                 scroller.setMaxNumberOfPages(maxNumberOfPages);
             }
+            scroller.setProgress(progress);
+            if (end != null) {
+                if (comparator == null) {
+                    comparator = (Comparator<? super Id>) Comparator.naturalOrder();
+                }
+                scroller.setEnd(end, comparator);
+            }
+            scroller.setUntil(until);
+            scroller.setWriteBehind(writeBehind);
             return new CursorIterator<>(scroller);
         }
 
         private void ensure() {
-            checkNotNull(dao);
+            checkNotNull(dao != null ? dao : fillingDao, "dao is null.");
             checkNotNull(function);
+            // 页首截取模式下一页从上一页的最后一条开始, 先删除再读取会跳过记录
+            checkState(writeBehind == null || mode == MODE_TRIM_LAST,
+                    "write behind buffer requires buildEx.");
 
             if (bufferSize == null) {
                 bufferSize = () -> DEFAULT_BUFFER_SIZE;
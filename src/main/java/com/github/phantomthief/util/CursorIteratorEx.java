@@ -1,9 +1,19 @@
 package com.github.phantomthief.util;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.Collections.emptyIterator;
+
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -12,6 +22,9 @@ import java.util.stream.StreamSupport;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+
 /**
  * 游标迭代器增强版
  * <p>提供一种迭代器机制，可以连续地遍历瀑布流式的数据接口，相比{@link CursorIterator}，此类允许定制游标处理时的细节</p>
@@ -51,16 +64,25 @@ public class CursorIteratorEx<T, C, R> implements Iterable<T> {
     private final Function<R, C> cursorExtractor;
     private final Function<R, Iterator<T>> dataExtractor;
     private final Predicate<C> endChecker;
+    private final Executor extractExecutor;
+    private final int extractParallelism;
+    private final boolean fetchAhead;
+    private final ScanProgress<? super C> progress;
 
     private CursorIteratorEx(C initCursor, boolean checkFirstCursor, Function<C, R> dataRetriever,
             Function<R, C> cursorExtractor, Function<R, Iterator<T>> dataExtractor,
-            Predicate<C> endChecker) {
+            Predicate<C> endChecker, Executor extractExecutor, int extractParallelism,
+            boolean fetchAhead, ScanProgress<? super C> progress) {
         this.initCursor = initCursor;
         this.checkFirstCursor = checkFirstCursor;
         this.dataRetriever = dataRetriever;
         this.cursorExtractor = cursorExtractor;
         this.dataExtractor = dataExtractor;
         this.endChecker = endChecker;
+        this.extractExecutor = extractExecutor;
+        this.extractParallelism = extractParallelism;
+        this.fetchAhead = fetchAhead;
+        this.progress = progress;
     }
 
     /**
@@ -91,8 +113,95 @@ public class CursorIteratorEx<T, C, R> implements Iterable<T> {
      * @return 返回一个Stream对象
      */
     public Stream<T> stream() {
-        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
-                (Spliterator.NONNULL | Spliterator.IMMUTABLE)), false);
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * 获取按页遍历的Spliterator，批量遍历时逐页调用数据提取器返回的迭代器的{@link Iterator#forEachRemaining}
+     *
+     * @return 返回Spliterator对象
+     */
+    @Nonnull
+    @Override
+    public Spliterator<T> spliterator() {
+        return new RollingSpliterator();
+    }
+
+    /**
+     * 按页批量转换实体，每次读取的结果只调用一次批量加载函数（例如根据一页的ID批量读取关联数据），避免逐条读取
+     * <p>转换后为空的页被跳过；数据提取器返回的空页仍然结束遍历</p>
+     *
+     * @param batchLoader 批量加载函数，传入一页的实体列表，返回转换后的列表，顺序即为迭代顺序
+     * @param <T1> 转换后的实体类型
+     * @return 转换后的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <T1> CursorIteratorEx<T1, C, R>
+    mapPages(@Nonnull Function<? super List<T>, ? extends List<T1>> batchLoader) {
+        checkNotNull(batchLoader);
+        return new CursorIteratorEx<>(initCursor, checkFirstCursor, dataRetriever,
+                cursorExtractor, mapExtractor(batchLoader), endChecker, extractExecutor,
+                extractParallelism, fetchAhead, progress);
+    }
+
+    /**
+     * 按页批量转换实体，批量加载函数在默认执行器上异步执行，第N页的转换与第N+1页的读取同时进行
+     * <p>默认执行器在JDK 21及以上使用虚拟线程，在Java 8上使用有界的平台线程池</p>
+     *
+     * @param batchLoader 批量加载函数，传入一页的实体列表，返回转换后的列表
+     * @param parallelism 最多同时在转换中（已提交但还未被消费）的页数，大于等于1；大于等于2时才会与下一页的读取并行
+     * @param <T1> 转换后的实体类型
+     * @return 转换后的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <T1> CursorIteratorEx<T1, C, R> mapPages(
+            @Nonnull Function<? super List<T>, ? extends List<T1>> batchLoader,
+            int parallelism) {
+        return mapPages(batchLoader, DefaultExecutors.shared(), parallelism);
+    }
+
+    /**
+     * 按页批量转换实体，数据提取和批量加载函数在指定的执行器上异步执行，第N页的转换与第N+1页的读取同时进行
+     * <p>返回结果的顺序与原始分页顺序一致</p>
+     * <p>中途放弃迭代（break、{@link Stream#limit}）时，已经提交的最多parallelism页的转换不会被取消，会在执行器上执行完后被丢弃</p>
+     *
+     * @param batchLoader 批量加载函数，传入一页的实体列表，返回转换后的列表
+     * @param executor 执行批量加载函数的执行器
+     * @param parallelism 最多同时在转换中（已提交但还未被消费）的页数，大于等于1；大于等于2时才会与下一页的读取并行
+     * @param <T1> 转换后的实体类型
+     * @return 转换后的游标迭代器
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <T1> CursorIteratorEx<T1, C, R> mapPages(
+            @Nonnull Function<? super List<T>, ? extends List<T1>> batchLoader,
+            @Nonnull Executor executor, int parallelism) {
+        checkNotNull(batchLoader);
+        checkNotNull(executor);
+        checkArgument(parallelism > 0);
+        return new CursorIteratorEx<>(initCursor, checkFirstCursor, dataRetriever,
+                cursorExtractor, mapExtractor(batchLoader), endChecker, executor, parallelism,
+                fetchAhead, progress);
+    }
+
+    private <T1> Function<R, Iterator<T1>>
+    mapExtractor(Function<? super List<T>, ? extends List<T1>> batchLoader) {
+        Function<R, Iterator<T>> extractor = dataExtractor;
+        return data -> {
+            Iterator<T> source = extractor.apply(data);
+            if (source instanceof SkippedPage) {
+                return new SkippedPage<>();
+            }
+            List<T> page = newArrayList(source);
+            if (page.isEmpty()) {
+                // 读取到的空页仍然结束遍历
+                return emptyIterator();
+            }
+            List<T1> mapped = batchLoader.apply(page);
+            return mapped.isEmpty() ? new SkippedPage<>() : mapped.iterator();
+        };
     }
 
     /**
@@ -111,6 +220,9 @@ public class CursorIteratorEx<T, C, R> implements Iterable<T> {
         private Function<R, C> cursorExtractor;
         private Function<R, Iterator<T>> dataExtractor;
         private Predicate<C> endChecker;
+        private Executor extractExecutor;
+        private int extractParallelism;
+        private ScanProgress<?> progress;
 
         /**
          * 设置起始ID，此ID对应的记录将作为迭代器返回的第一条数据对象
@@ -205,6 +317,55 @@ public class CursorIteratorEx<T, C, R> implements Iterable<T> {
             return thisBuilder;
         }
 
+        /**
+         * 设置遍历进度，每消费完一页更新一次，可以在其它线程上读取，含义见{@link ScanProgress}
+         *
+         * @param progress 遍历进度
+         * @param <C1> ID类型泛型
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public <C1> Builder<?, C1, ?> withProgress(@Nonnull ScanProgress<? super C1> progress) {
+            Builder<?, C1, ?> thisBuilder = (Builder<?, C1, ?>) this;
+            thisBuilder.progress = checkNotNull(progress);
+            return thisBuilder;
+        }
+
+        /**
+         * 在默认执行器上执行数据提取器函数
+         * <p>在默认执行器的线程上遍历时（例如在另一个使用默认执行器的按页转换中）需要指定执行器，否则遍历时抛出{@link IllegalStateException}</p>
+         *
+         * @param parallelism 最多同时在提取中（已读取但还未被消费）的页数，大于等于1
+         * @return 当前构造器对象
+         * @see #withDataExtractExecutor(Executor, int)
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withDataExtractExecutor(int parallelism) {
+            return withDataExtractExecutor(DefaultExecutors.shared(), parallelism);
+        }
+
+        /**
+         * 在指定的执行器上执行数据提取器函数，适用于解压、反序列化等比较耗时的提取过程
+         * <p>下一页的读取在执行器上串行地提前进行，读取、提取和调用线程上的消费在不同的页之间同时进行，
+         * 返回结果的顺序与原始分页顺序一致；已读取但还未被消费的页最多为parallelism + 1页</p>
+         * <p>数据读取函数和数据提取器函数会在执行器的线程上执行</p>
+         *
+         * @param executor 执行数据读取和数据提取器函数的执行器
+         * @param parallelism 最多同时在提取中（已读取但还未被消费）的页数，大于等于1
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withDataExtractExecutor(@Nonnull Executor executor,
+                int parallelism) {
+            checkArgument(parallelism > 0);
+            this.extractExecutor = checkNotNull(executor);
+            this.extractParallelism = parallelism;
+            return this;
+        }
+
         /**
          * 构造游标迭代器
          *
@@ -218,7 +379,8 @@ public class CursorIteratorEx<T, C, R> implements Iterable<T> {
         public <T1, C1, R1> CursorIteratorEx<T1, C1, R1> build() {
             ensure();
             return new CursorIteratorEx(initCursor, checkFirstCursor, dataRetriever,
-                    cursorExtractor, dataExtractor, endChecker);
+                    cursorExtractor, dataExtractor, endChecker, extractExecutor,
+                    extractParallelism, extractExecutor != null, progress);
         }
 
         private void ensure() {
@@ -238,54 +400,260 @@ public class CursorIteratorEx<T, C, R> implements Iterable<T> {
 
     }
 
-    private final class RollingIterator implements Iterator<T> {
+    /**
+     * 按游标逐次读取结果对象，负责游标的推进与终末检查
+     */
+    private final class ResultIterator extends AbstractIterator<R> {
 
-        private C currentCursor;
-        private R currentData;
-        private Iterator<T> currentIterator;
+        private C currentCursor = initCursor;
+        private boolean firstTime = true;
 
-        RollingIterator() {
-            currentCursor = initCursor;
-            if (checkFirstCursor && endChecker.test(currentCursor)) {
-                return;
+        @Override
+        protected R computeNext() {
+            if (firstTime) {
+                firstTime = false;
+                if (checkFirstCursor && endChecker.test(currentCursor)) {
+                    return endOfData();
+                }
+            } else if (endChecker.test(currentCursor)) {
+                return endOfData();
+            }
+            R data = dataRetriever.apply(currentCursor);
+            if (data == null) {
+                return endOfData();
             }
-            currentData = dataRetriever.apply(currentCursor);
-            if (currentData != null) {
-                currentIterator = dataExtractor.apply(currentData);
-                currentCursor = cursorExtractor.apply(currentData);
+            currentCursor = cursorExtractor.apply(data);
+            return data;
+        }
+    }
+
+    private Iterator<Iterator<T>> pageIterator() {
+        Function<R, Iterator<T>> extractor = dataExtractor;
+        if (progress != null) {
+            progress.restart();
+            // 每页记住读取这一页之后的游标, 这一页被消费完时作为恢复遍历的游标计入进度
+            extractor = data -> new CountingIterator<>(dataExtractor.apply(data),
+                    cursorExtractor.apply(data), progress);
+        }
+        Iterator<R> results = new ResultIterator();
+        Iterator<Iterator<T>> pages;
+        if (extractExecutor == null) {
+            pages = Iterators.transform(results, extractor::apply);
+        } else {
+            if (fetchAhead) {
+                // 下一页的读取与当前页的提取和消费同时进行
+                results = new PrefetchIterator<>(results, extractExecutor, 1);
             }
+            pages = new PipelinedIterator<>(results, extractor, extractExecutor,
+                    extractParallelism);
         }
+        // 按页转换后没有剩余实体的页不结束遍历, 跳过时计入进度
+        return Iterators.filter(pages, page -> !isSkipped(page) || page.hasNext());
+    }
+
+    private static boolean isSkipped(Iterator<?> page) {
+        if (page instanceof CountingIterator) {
+            return ((CountingIterator<?, ?>) page).delegate instanceof SkippedPage;
+        }
+        return page instanceof SkippedPage;
+    }
+
+    /**
+     * 按页转换后没有剩余实体的页, 与数据提取器返回的空页（结束遍历）区分开, 遍历时被跳过
+     */
+    private static final class SkippedPage<T> implements Iterator<T> {
 
         @Override
         public boolean hasNext() {
-            if (currentIterator == null) {
-                return false;
+            return false;
+        }
+
+        @Override
+        public T next() {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * 按页读取并提取数据, 每页与读取这一页之后的下一个游标一起交给 pageFactory, 在调用 next 的线程上提取
+     */
+    <P> Iterator<P> cursorPages(BiFunction<? super List<T>, ? super C, ? extends P> pageFactory) {
+        ResultIterator results = new ResultIterator();
+        return Iterators.transform(results, data -> pageFactory
+                .apply(newArrayList(dataExtractor.apply(data)), results.currentCursor));
+    }
+
+    /**
+     * 统计一页中被消费的记录数, 迭代越过这一页之后与恢复遍历的游标一起计入遍历进度
+     */
+    private static final class CountingIterator<T, C> implements Iterator<T> {
+
+        private final Iterator<T> delegate;
+        private final C resumeCursor;
+        private final ScanProgress<? super C> progress;
+        private int count;
+        private boolean recorded;
+
+        CountingIterator(Iterator<T> delegate, C resumeCursor, ScanProgress<? super C> progress) {
+            this.delegate = delegate;
+            this.resumeCursor = resumeCursor;
+            this.progress = progress;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (delegate.hasNext()) {
+                return true;
             }
-            if (currentIterator.hasNext()) {
+            flush();
+            return false;
+        }
+
+        @Override
+        public T next() {
+            T next = delegate.next();
+            count++;
+            return next;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            delegate.forEachRemaining(t -> {
+                count++;
+                action.accept(t);
+            });
+            flush();
+        }
+
+        private void flush() {
+            if (!recorded) {
+                recorded = true;
+                progress.record(resumeCursor, count);
+            }
+        }
+    }
+
+    private final class RollingIterator implements Iterator<T> {
+
+        private final Iterator<Iterator<T>> pageIterator = pageIterator();
+        private Iterator<T> currentIterator;
+        private boolean finished;
+
+        @Override
+        public boolean hasNext() {
+            if (currentIterator != null && currentIterator.hasNext()) {
                 return true;
             }
-            roll();
-            return currentIterator != null && currentIterator.hasNext();
+            if (finished) {
+                return false;
+            }
+            // 读取到空页时结束遍历，不再读取后面的页
+            if (pageIterator.hasNext()) {
+                currentIterator = pageIterator.next();
+                if (currentIterator.hasNext()) {
+                    return true;
+                }
+            }
+            finished = true;
+            return false;
         }
 
-        private void roll() {
-            if (endChecker.test(currentCursor)) {
-                currentData = null;
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentIterator.next();
+        }
+    }
+
+    /**
+     * 数据提取器返回的是迭代器, 一页的大小在遍历完或者切分时才知道, 按最近一页的大小估计剩余的条数
+     */
+    private final class RollingSpliterator implements Spliterator<T> {
+
+        private static final int CHARACTERISTICS = ORDERED | NONNULL | IMMUTABLE;
+
+        private final Iterator<Iterator<T>> pageIterator = pageIterator();
+        private Iterator<T> currentIterator;
+        private int consumed;
+        private int lastPageSize = -1;
+        private boolean exhausted;
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if ((currentIterator == null || !currentIterator.hasNext()) && !nextPage()) {
+                return false;
+            }
+            action.accept(currentIterator.next());
+            consumed++;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (currentIterator != null) {
+                currentIterator.forEachRemaining(action);
                 currentIterator = null;
-                return;
             }
-            currentData = dataRetriever.apply(currentCursor);
-            if (currentData == null) {
+            while (nextPage()) {
+                currentIterator.forEachRemaining(action);
                 currentIterator = null;
-            } else {
-                currentCursor = cursorExtractor.apply(currentData);
-                currentIterator = dataExtractor.apply(currentData);
             }
         }
 
+        /**
+         * 把当前页（或下一页）剩余的部分切分出去
+         */
+        @Override
+        public Spliterator<T> trySplit() {
+            if ((currentIterator == null || !currentIterator.hasNext()) && !nextPage()) {
+                return null;
+            }
+            Object[] prefix = newArrayList(currentIterator).toArray();
+            lastPageSize = consumed + prefix.length;
+            currentIterator = null;
+            return Spliterators.spliterator(prefix, CHARACTERISTICS);
+        }
+
+        /**
+         * 读取第一页之前总数是未知的; 之后按最近一页的大小估计当前页剩余的条数, 再加上一页作为后续页的估计
+         */
         @Override
-        public T next() {
-            return currentIterator.next();
+        public long estimateSize() {
+            if (exhausted) {
+                return 0;
+            }
+            if (lastPageSize < 0) {
+                return Long.MAX_VALUE;
+            }
+            long remaining = currentIterator == null ? 0 : Math.max(lastPageSize - consumed, 0);
+            return remaining + lastPageSize;
+        }
+
+        @Override
+        public int characteristics() {
+            return CHARACTERISTICS;
+        }
+
+        /**
+         * 读取下一页, 读取到空页时结束遍历
+         */
+        private boolean nextPage() {
+            if (currentIterator != null && consumed > 0) {
+                // 上一页已经遍历完
+                lastPageSize = consumed;
+            }
+            if (!exhausted && pageIterator.hasNext()) {
+                currentIterator = pageIterator.next();
+                consumed = 0;
+                if (currentIterator.hasNext()) {
+                    return true;
+                }
+            }
+            exhausted = true;
+            currentIterator = null;
+            return false;
         }
     }
 }
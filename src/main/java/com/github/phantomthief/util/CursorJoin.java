@@ -0,0 +1,370 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Iterators.peekingIterator;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.PeekingIterator;
+
+/**
+ * 两个按相同游标顺序排列的游标迭代器之间的流式归并连接
+ * <p>两边按连接键同步向前推进，任何时刻每边只持有当前的一页数据，内存占用与数据总量无关</p>
+ * <p>例如对账users表和user_settings表：</p>
+ * <pre>{@code
+ * CursorJoin<Integer, User, UserSetting> diff = CursorJoin.<Integer, User, UserSetting> newBuilder()
+ *         .left(users, User::getId)
+ *         .right(settings, UserSetting::getUserId)
+ *         .type(JoinType.DIFF)
+ *         .matcher((user, setting) -> user.getName().equals(setting.getName()))
+ *         .prefetch(2)
+ *         .build();
+ * diff.stream().forEach(joined -> {
+ *     // 只包含一边缺失或者内容不一致的记录
+ * });
+ * }</pre>
+ * <p>注意：两边的连接键都必须按比较器非递减排列（连接键倒退时遍历抛出{@link IllegalStateException}），
+ * 相同的连接键按出现顺序一一配对，多出的一边按缺失处理</p>
+ *
+ * @param <K> 连接键类型泛型
+ * @param <L> 左侧实体类型泛型
+ * @param <R> 右侧实体类型泛型
+ * @author agent
+ */
+public class CursorJoin<K, L, R> implements Iterable<CursorJoin.Joined<K, L, R>> {
+
+    private final Iterable<L> left;
+    private final Function<? super L, ? extends K> leftKey;
+    private final Iterable<R> right;
+    private final Function<? super R, ? extends K> rightKey;
+    private final Comparator<? super K> comparator;
+    private final JoinType type;
+    private final BiPredicate<? super L, ? super R> matcher;
+
+    private CursorJoin(Builder<K, L, R> builder, Iterable<L> left, Iterable<R> right) {
+        this.left = left;
+        this.leftKey = builder.leftKey;
+        this.right = right;
+        this.rightKey = builder.rightKey;
+        this.comparator = builder.comparator;
+        this.type = builder.type;
+        this.matcher = builder.matcher;
+    }
+
+    /**
+     * 创建归并连接的构造器
+     *
+     * @param <K> 连接键类型泛型
+     * @param <L> 左侧实体类型泛型
+     * @param <R> 右侧实体类型泛型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <K, L, R> Builder<K, L, R> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 获取迭代器
+     *
+     * @return 返回迭代器对象
+     */
+    @Nonnull
+    @Override
+    public Iterator<Joined<K, L, R>> iterator() {
+        return new JoinIterator();
+    }
+
+    /**
+     * 获取Stream
+     *
+     * @return 返回一个Stream对象
+     */
+    public Stream<Joined<K, L, R>> stream() {
+        return StreamSupport.stream(spliteratorUnknownSize(iterator(), (NONNULL | ORDERED)), false);
+    }
+
+    /**
+     * 连接类型
+     */
+    public enum JoinType {
+        /**
+         * 只返回两边都存在的记录
+         */
+        INNER,
+        /**
+         * 返回左侧的全部记录，右侧不存在时为null
+         */
+        LEFT,
+        /**
+         * 返回两边的全部记录，不存在的一边为null
+         */
+        FULL_OUTER,
+        /**
+         * 只返回一边缺失，或者两边都存在但是{@link Builder#matcher}判断不一致的记录
+         */
+        DIFF
+    }
+
+    /**
+     * 连接结果
+     *
+     * @param <K> 连接键类型泛型
+     * @param <L> 左侧实体类型泛型
+     * @param <R> 右侧实体类型泛型
+     */
+    public static final class Joined<K, L, R> {
+
+        private final K key;
+        private final L left;
+        private final R right;
+
+        private Joined(K key, L left, R right) {
+            this.key = key;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Nonnull
+        public K getKey() {
+            return key;
+        }
+
+        @Nullable
+        public L getLeft() {
+            return left;
+        }
+
+        @Nullable
+        public R getRight() {
+            return right;
+        }
+
+        @Override
+        public String toString() {
+            return "Joined [key=" + key + ", left=" + left + ", right=" + right + "]";
+        }
+    }
+
+    /**
+     * 归并连接构造器
+     *
+     * @param <K> 连接键类型泛型
+     * @param <L> 左侧实体类型泛型
+     * @param <R> 右侧实体类型泛型
+     */
+    public static final class Builder<K, L, R> {
+
+        private Iterable<L> left;
+        private Function<? super L, ? extends K> leftKey;
+        private Iterable<R> right;
+        private Function<? super R, ? extends K> rightKey;
+        private Comparator<? super K> comparator;
+        private JoinType type = JoinType.INNER;
+        private BiPredicate<? super L, ? super R> matcher;
+        private int prefetchPages;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置左侧的游标迭代器
+         *
+         * @param iterator 左侧的游标迭代器，需要按连接键非递减排列
+         * @param keyExtractor 从左侧实体上提取连接键的函数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<K, L, R> left(@Nonnull CursorIterator<?, L> iterator,
+                @Nonnull Function<? super L, ? extends K> keyExtractor) {
+            this.left = checkNotNull(iterator);
+            this.leftKey = checkNotNull(keyExtractor);
+            return this;
+        }
+
+        /**
+         * 设置右侧的游标迭代器
+         *
+         * @param iterator 右侧的游标迭代器，需要按连接键非递减排列
+         * @param keyExtractor 从右侧实体上提取连接键的函数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<K, L, R> right(@Nonnull CursorIterator<?, R> iterator,
+                @Nonnull Function<? super R, ? extends K> keyExtractor) {
+            this.right = checkNotNull(iterator);
+            this.rightKey = checkNotNull(keyExtractor);
+            return this;
+        }
+
+        /**
+         * 设置连接键的比较器，不设置时连接键需要实现{@link Comparable}
+         *
+         * @param comparator 连接键比较器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<K, L, R> comparator(@Nonnull Comparator<? super K> comparator) {
+            this.comparator = checkNotNull(comparator);
+            return this;
+        }
+
+        /**
+         * 设置连接类型，默认为{@link JoinType#INNER}
+         *
+         * @param type 连接类型
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<K, L, R> type(@Nonnull JoinType type) {
+            this.type = checkNotNull(type);
+            return this;
+        }
+
+        /**
+         * 设置{@link JoinType#DIFF}模式下两边记录是否一致的判断函数，默认使用{@link Objects#equals}
+         *
+         * @param matcher 一致时返回true
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<K, L, R> matcher(@Nonnull BiPredicate<? super L, ? super R> matcher) {
+            this.matcher = checkNotNull(matcher);
+            return this;
+        }
+
+        /**
+         * 设置两边各自在默认执行器上提前读取的页数，默认不预读
+         *
+         * @param pages 提前读取的页数，大于等于1
+         * @return 当前构造器对象
+         * @see CursorIterator#prefetch(int)
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<K, L, R> prefetch(int pages) {
+            checkArgument(pages > 0);
+            this.prefetchPages = pages;
+            return this;
+        }
+
+        /**
+         * 构造归并连接
+         *
+         * @return 归并连接对象
+         */
+        @SuppressWarnings("unchecked")
+        @Nonnull
+        public CursorJoin<K, L, R> build() {
+            checkNotNull(left, "left is null.");
+            checkNotNull(right, "right is null.");
+            if (comparator == null) {
+                comparator = (Comparator<? super K>) Comparator.naturalOrder();
+            }
+            if (matcher == null) {
+                matcher = Objects::equals;
+            }
+            // 每次构造各自包装, 构造器可以重复使用
+            Iterable<L> thisLeft = left;
+            Iterable<R> thisRight = right;
+            if (prefetchPages > 0) {
+                thisLeft = ((CursorIterator<?, L>) left).prefetch(prefetchPages);
+                thisRight = ((CursorIterator<?, R>) right).prefetch(prefetchPages);
+            }
+            return new CursorJoin<>(this, thisLeft, thisRight);
+        }
+    }
+
+    private final class JoinIterator extends AbstractIterator<Joined<K, L, R>> {
+
+        private final PeekingIterator<L> leftIterator = peekingIterator(left.iterator());
+        private final PeekingIterator<R> rightIterator = peekingIterator(right.iterator());
+        private K lastLeftKey;
+        private K lastRightKey;
+
+        @Override
+        protected Joined<K, L, R> computeNext() {
+            while (true) {
+                boolean hasLeft = leftIterator.hasNext();
+                boolean hasRight = rightIterator.hasNext();
+                if (!hasLeft && !hasRight || type == JoinType.INNER && !(hasLeft && hasRight)
+                        || type == JoinType.LEFT && !hasLeft) {
+                    return endOfData();
+                }
+                Joined<K, L, R> joined;
+                if (hasLeft && hasRight) {
+                    K thisLeftKey = leftKey.apply(leftIterator.peek());
+                    K thisRightKey = rightKey.apply(rightIterator.peek());
+                    int compare = comparator.compare(thisLeftKey, thisRightKey);
+                    if (compare == 0) {
+                        joined = new Joined<>(thisLeftKey, nextLeft(thisLeftKey),
+                                nextRight(thisRightKey));
+                    } else if (compare < 0) {
+                        joined = new Joined<>(thisLeftKey, nextLeft(thisLeftKey), null);
+                    } else {
+                        joined = new Joined<>(thisRightKey, null, nextRight(thisRightKey));
+                    }
+                } else if (hasLeft) {
+                    K key = leftKey.apply(leftIterator.peek());
+                    joined = new Joined<>(key, nextLeft(key), null);
+                } else {
+                    K key = rightKey.apply(rightIterator.peek());
+                    joined = new Joined<>(key, null, nextRight(key));
+                }
+                if (accept(joined)) {
+                    return joined;
+                }
+            }
+        }
+
+        private L nextLeft(K key) {
+            checkState(lastLeftKey == null || comparator.compare(lastLeftKey, key) <= 0,
+                    "left keys are not in ascending order: %s after %s.", key, lastLeftKey);
+            lastLeftKey = key;
+            return leftIterator.next();
+        }
+
+        private R nextRight(K key) {
+            checkState(lastRightKey == null || comparator.compare(lastRightKey, key) <= 0,
+                    "right keys are not in ascending order: %s after %s.", key, lastRightKey);
+            lastRightKey = key;
+            return rightIterator.next();
+        }
+
+        private boolean accept(Joined<K, L, R> joined) {
+            switch (type) {
+                case INNER:
+                    return joined.left != null && joined.right != null;
+                case LEFT:
+                    return joined.left != null;
+                case DIFF:
+                    return joined.left == null || joined.right == null
+                            || !matcher.test(joined.left, joined.right);
+                default:
+                    return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 未指定执行器时使用的默认执行器.
+ * Java 8 下使用有界的平台线程池; JDK 21 及以上由 META-INF/versions/21 下的同名类替换为虚拟线程实现.
+ * 有界线程池的线程阻塞等待提交到同一个线程池的任务时, 线程池占满后会死锁,
+ * 所以自身会阻塞等待默认执行器的任务 (内层遍历、分段遍历) 使用单独的 {@link #nested()} 执行器.
+ *
+ * @author agent
+ */
+final class DefaultExecutors {
+
+    private static final int MAX_THREADS = Math.max(8,
+            Runtime.getRuntime().availableProcessors() * 4);
+
+    private DefaultExecutors() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return 所有游标迭代器共享的默认执行器, 线程都是守护线程, 空闲后自动回收
+     */
+    static ExecutorService shared() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * @return 执行内层遍历、分段遍历的默认执行器, 这些任务会阻塞等待 {@link #shared()} 上的预读和转换任务
+     */
+    static ExecutorService nested() {
+        return Holder.NESTED;
+    }
+
+    /**
+     * 创建一个新的执行器, 用于需要独立生命周期的组件
+     *
+     * @param nameFormat 线程名格式, 例如 "cursor-iterator-%d"
+     */
+    static ExecutorService newExecutor(String nameFormat) {
+        return new BoundedExecutor(nameFormat);
+    }
+
+    /**
+     * 调用线程即将阻塞等待提交到 executor 的任务, 如果调用线程本身就是这个有界线程池的线程, 线程池占满时会死锁
+     *
+     * @throws IllegalStateException 在默认执行器的线程上嵌套使用同一个默认执行器
+     */
+    static void checkNotNested(Executor executor) {
+        Thread thread = Thread.currentThread();
+        checkState(!(thread instanceof PoolThread && ((PoolThread) thread).pool == executor),
+                "nested scans on the default executor require an explicit executor.");
+    }
+
+    private static final class BoundedExecutor extends ThreadPoolExecutor {
+
+        BoundedExecutor(String nameFormat) {
+            super(MAX_THREADS, MAX_THREADS, 60, SECONDS, new LinkedBlockingQueue<>());
+            setThreadFactory(new ThreadFactoryBuilder()
+                    .setNameFormat(nameFormat)
+                    .setDaemon(true)
+                    .setThreadFactory(runnable -> new PoolThread(runnable, this))
+                    .build());
+            allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private static final class PoolThread extends Thread {
+
+        private final Executor pool;
+
+        PoolThread(Runnable runnable, Executor pool) {
+            super(runnable);
+            this.pool = pool;
+        }
+    }
+
+    private static final class Holder {
+
+        private static final ExecutorService SHARED = newExecutor("cursor-iterator-%d");
+        private static final ExecutorService NESTED = newExecutor("cursor-iterator-nested-%d");
+    }
+}
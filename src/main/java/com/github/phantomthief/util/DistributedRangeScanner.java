@@ -0,0 +1,306 @@
+package com.github.phantomthief.util;
+
+import static com.github.phantomthief.util.PageScroller.MODE_TRIM_LAST;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+
+/**
+ * 基于租约的分布式区间遍历
+ * <p>游标空间按切分点划分为若干区间，多个工作节点（或线程）通过共享的{@link RangeLeaseStore}获取区间租约并各自遍历；
+ * 每处理完一页记录一次检查点并续约，节点宕机后租约过期，其它节点从最后一个检查点接着遍历</p>
+ * <pre>{@code
+ * DistributedRangeScanner<Long, User> scanner = DistributedRangeScanner.<Long, User> newBuilder()
+ *         .leaseStore(store)
+ *         .splitPoints(0L, DistributedRangeScanner.splitEvenly(0L, maxId, 64), null)
+ *         .workerId(hostName)
+ *         .leaseTime(30, SECONDS)
+ *         .bufferSize(100)
+ *         .cursorExtractor(User::getId)
+ *         .build(userDAO::getUsers);
+ * scanner.run(user -> {
+ *     // 处理单个用户
+ * });
+ * }</pre>
+ * <p>注意：语义为至少一次，租约被接管时最后一个检查点之后已经处理过的记录会被再次处理；
+ * 每页的处理时间需要小于租约时长</p>
+ *
+ * @param <Id> ID类型泛型
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public class DistributedRangeScanner<Id, Entity> {
+
+    private static final int DEFAULT_BUFFER_SIZE = 30;
+
+    private final RangeLeaseStore<Id> store;
+    private final String workerId;
+    private final long leaseMillis;
+    private final GetByCursorDAO<Id, Entity> dao;
+    private final IntSupplier bufferSize;
+    private final Function<Entity, Id> cursorExtractor;
+    private final Comparator<? super Id> comparator;
+
+    private DistributedRangeScanner(Builder<Id, Entity> builder, GetByCursorDAO<Id, Entity> dao) {
+        this.store = builder.store;
+        this.workerId = builder.workerId;
+        this.leaseMillis = builder.leaseMillis;
+        this.dao = dao;
+        this.bufferSize = builder.bufferSize;
+        this.cursorExtractor = builder.cursorExtractor;
+        this.comparator = builder.comparator;
+    }
+
+    /**
+     * 创建分布式区间遍历的构造器
+     *
+     * @param <I> ID泛型类型
+     * @param <E> 返回实体对象的泛型类型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <I, E> Builder<I, E> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 把[start, end)均匀地切分为parts个区间
+     *
+     * @param start 起始ID（包括）
+     * @param end 结束ID（不包括）
+     * @param parts 区间数，大于等于1
+     * @return parts - 1个递增的切分点
+     */
+    @Nonnull
+    public static List<Long> splitEvenly(long start, long end, int parts) {
+        checkArgument(end > start);
+        checkArgument(parts > 0);
+        List<Long> points = new ArrayList<>(parts - 1);
+        double step = (double) (end - start) / parts;
+        long last = start;
+        for (int i = 1; i < parts; i++) {
+            long point = start + (long) (step * i);
+            if (point > last) {
+                points.add(point);
+                last = point;
+            }
+        }
+        return points;
+    }
+
+    /**
+     * 在当前线程上循环获取区间租约并遍历，直到没有可获取的区间
+     * <p>返回时其它节点可能还持有未完成的区间，可以通过{@link RangeLeaseStore#isCompleted()}判断是否全部完成</p>
+     *
+     * @param consumer 记录处理函数，抛出异常时释放当前租约并向上抛出，检查点保留
+     * @return 当前节点处理的记录数
+     */
+    public long run(@Nonnull Consumer<? super Entity> consumer) {
+        checkNotNull(consumer);
+        long count = 0;
+        RangeLease<Id> lease;
+        while ((lease = store.tryAcquire(workerId, leaseMillis)) != null) {
+            try {
+                count += scan(lease, consumer);
+            } catch (Throwable e) {
+                store.release(lease);
+                throw e;
+            }
+        }
+        return count;
+    }
+
+    private long scan(RangeLease<Id> lease, Consumer<? super Entity> consumer) {
+        Id skipTo = lease.getLastProcessed();
+        Id checkpoint = skipTo;
+        Id end = lease.getEnd();
+        PageScroller<Id, Entity> scroller = new PageScroller<>(dao,
+                skipTo != null ? skipTo : lease.getStart(), bufferSize, cursorExtractor,
+                MODE_TRIM_LAST);
+        if (end != null) {
+            // 区间的结束游标下推到遍历中，不会读到相邻区间
+            scroller.setEnd(end, comparator);
+        }
+        PageCursor<Entity> pages = scroller.cursor();
+        long count = 0;
+        while (pages.advance()) {
+            for (int i = pages.from; i < pages.to; i++) {
+                Entity entity = pages.page.get(i);
+                Id id = cursorExtractor.apply(entity);
+                // 从检查点续扫时，检查点本身以及之前的记录已经处理过
+                if (skipTo != null && comparator.compare(id, skipTo) <= 0) {
+                    continue;
+                }
+                consumer.accept(entity);
+                checkpoint = id;
+                count++;
+            }
+            // 整页都被跳过时检查点不变, 但仍然续约, 长时间的跳过不会丢失租约
+            if (checkpoint != null && !store.checkpoint(lease, checkpoint, leaseMillis)) {
+                // 租约已经被其它节点接管
+                return count;
+            }
+        }
+        store.complete(lease);
+        return count;
+    }
+
+    /**
+     * 分布式区间遍历构造器
+     *
+     * @param <Id> ID泛型类型
+     * @param <Entity> 实体对象泛型类型
+     */
+    public static final class Builder<Id, Entity> {
+
+        private RangeLeaseStore<Id> store;
+        private String workerId;
+        private long leaseMillis = TimeUnit.SECONDS.toMillis(30);
+        private IntSupplier bufferSize = () -> DEFAULT_BUFFER_SIZE;
+        private Function<Entity, Id> cursorExtractor;
+        private Comparator<? super Id> comparator;
+        private boolean initialize;
+        private Id start;
+        private List<Id> splitPoints;
+        private Id end;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置区间租约存储
+         *
+         * @param store 所有工作节点共享的区间租约存储
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> leaseStore(@Nonnull RangeLeaseStore<Id> store) {
+            this.store = checkNotNull(store);
+            return this;
+        }
+
+        /**
+         * 设置切分点，在{@link #build}时按切分点初始化区间租约存储，已经初始化过时忽略
+         *
+         * @param start 起始ID（包括），null表示从头开始
+         * @param splitPoints 递增的切分点
+         * @param end 结束ID（不包括），null表示没有上界
+         * @return 当前构造器对象
+         * @see RangeLeaseStore#initialize
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> splitPoints(Id start, @Nonnull List<Id> splitPoints, Id end) {
+            this.initialize = true;
+            this.start = start;
+            this.splitPoints = new ArrayList<>(checkNotNull(splitPoints));
+            this.end = end;
+            return this;
+        }
+
+        /**
+         * 设置当前工作节点的标识
+         *
+         * @param workerId 工作节点标识
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> workerId(@Nonnull String workerId) {
+            this.workerId = checkNotNull(workerId);
+            return this;
+        }
+
+        /**
+         * 设置租约时长，默认为30秒；每处理完一页续约一次
+         *
+         * @param leaseTime 租约时长
+         * @param unit 时间单位
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> leaseTime(long leaseTime, @Nonnull TimeUnit unit) {
+            checkArgument(leaseTime > 0);
+            this.leaseMillis = unit.toMillis(leaseTime);
+            return this;
+        }
+
+        /**
+         * 设置一次取列表数据返回的记录数
+         *
+         * @param bufferSize 一次取列表数据返回的记录数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> bufferSize(int bufferSize) {
+            checkArgument(bufferSize > 0);
+            this.bufferSize = () -> bufferSize;
+            return this;
+        }
+
+        /**
+         * 设置游标提取函数
+         *
+         * @param function 提供一个函数，从传入的实体上提取游标ID对象
+         * @return 当前构造器对象
+         */
+        @SuppressWarnings("unchecked")
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity>
+        cursorExtractor(@Nonnull Function<? super Entity, ? extends Id> function) {
+            this.cursorExtractor = (Function<Entity, Id>) checkNotNull(function);
+            return this;
+        }
+
+        /**
+         * 设置游标的比较器，不设置时游标需要实现{@link Comparable}
+         *
+         * @param comparator 游标比较器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> comparator(@Nonnull Comparator<? super Id> comparator) {
+            this.comparator = checkNotNull(comparator);
+            return this;
+        }
+
+        /**
+         * 构造分布式区间遍历
+         *
+         * @param dao 游标数据访问对象，实现了{@link BoundedGetByCursorDAO}时区间的结束游标会传给数据访问对象
+         * @return 分布式区间遍历对象
+         */
+        @SuppressWarnings("unchecked")
+        @Nonnull
+        public DistributedRangeScanner<Id, Entity>
+        build(@Nonnull GetByCursorDAO<? super Id, ? extends Entity> dao) {
+            checkNotNull(dao);
+            checkNotNull(store, "leaseStore is null.");
+            checkNotNull(workerId, "workerId is null.");
+            checkNotNull(cursorExtractor, "cursorExtractor is null.");
+            if (comparator == null) {
+                comparator = (Comparator<? super Id>) Comparator.naturalOrder();
+            }
+            if (initialize) {
+                store.initialize(start, splitPoints, end);
+            }
+            return new DistributedRangeScanner<>(this, (GetByCursorDAO<Id, Entity>) dao);
+        }
+    }
+}
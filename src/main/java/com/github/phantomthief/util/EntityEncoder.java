@@ -0,0 +1,26 @@
+package com.github.phantomthief.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * 实体编码器，把单个实体编码到字节缓冲区中
+ *
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ * @see PageExporter
+ */
+public interface EntityEncoder<Entity> {
+
+    /**
+     * 从缓冲区当前位置开始写入实体编码后的字节
+     * <p>空间不足时直接抛出{@link BufferOverflowException}即可（{@link ByteBuffer}的相对写方法的默认行为），
+     * 调用方会丢弃已写入的部分，换一个空的缓冲区重新编码</p>
+     *
+     * @param entity 实体
+     * @param buffer 目标缓冲区
+     */
+    void encode(@Nonnull Entity entity, @Nonnull ByteBuffer buffer);
+}
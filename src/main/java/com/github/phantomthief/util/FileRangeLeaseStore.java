@@ -0,0 +1,149 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * 基于本地文件的区间租约存储，通过文件锁在同一台机器（或者共享文件系统）上的多个进程之间协作
+ * <p>每次操作都会加锁、读取整个文件，有修改时写回并刷盘，适合区间数不多的场景和测试</p>
+ *
+ * @param <Id> ID类型泛型
+ * @author agent
+ */
+public class FileRangeLeaseStore<Id> extends AbstractRangeLeaseStore<Id> {
+
+    /**
+     * 文件锁由整个JVM持有, 同一个JVM内对同一个文件的操作还需要互斥.
+     * 同一个文件的存储共享同一个路径对象作为锁, 弱引用, 没有存储引用时自动移除
+     */
+    private static final Interner<Path> LOCAL_LOCKS = Interners.newWeakInterner();
+
+    private final Path file;
+    private final Function<? super Id, String> encoder;
+    private final Function<String, ? extends Id> decoder;
+
+    /**
+     * @param file 状态文件，不存在时自动创建
+     * @param encoder 游标编码函数
+     * @param decoder 游标解码函数
+     */
+    public FileRangeLeaseStore(@Nonnull Path file, @Nonnull Function<? super Id, String> encoder,
+            @Nonnull Function<String, ? extends Id> decoder) {
+        this.file = LOCAL_LOCKS.intern(checkNotNull(file).toAbsolutePath().normalize());
+        this.encoder = checkNotNull(encoder);
+        this.decoder = checkNotNull(decoder);
+    }
+
+    @Override
+    <T> T update(Function<List<RangeState<Id>>, T> operation) {
+        synchronized (file) {
+            try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    List<RangeState<Id>> states = read(channel);
+                    Properties before = toProperties(states);
+                    T result = operation.apply(states);
+                    Properties after = toProperties(states);
+                    // 只读的操作 (例如轮询是否全部完成) 不重写文件, 也不刷盘
+                    if (!after.equals(before)) {
+                        write(channel, after);
+                    }
+                    return result;
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private List<RangeState<Id>> read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // 读满为止
+        }
+        Properties properties = new Properties();
+        properties.load(new StringReader(new String(buffer.array(), UTF_8)));
+        int count = Integer.parseInt(properties.getProperty("ranges", "0"));
+        List<RangeState<Id>> states = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String prefix = "range." + i + ".";
+            RangeState<Id> state = new RangeState<>();
+            state.start = decode(properties.getProperty(prefix + "start"));
+            state.end = decode(properties.getProperty(prefix + "end"));
+            state.lastProcessed = decode(properties.getProperty(prefix + "lastProcessed"));
+            state.done = Boolean.parseBoolean(properties.getProperty(prefix + "done"));
+            state.owner = properties.getProperty(prefix + "owner");
+            state.token = Long.parseLong(properties.getProperty(prefix + "token", "0"));
+            state.expireAt = Long.parseLong(properties.getProperty(prefix + "expireAt", "0"));
+            states.add(state);
+        }
+        return states;
+    }
+
+    private Properties toProperties(List<RangeState<Id>> states) {
+        Properties properties = new Properties();
+        properties.setProperty("ranges", String.valueOf(states.size()));
+        for (int i = 0; i < states.size(); i++) {
+            String prefix = "range." + i + ".";
+            RangeState<Id> state = states.get(i);
+            encode(properties, prefix + "start", state.start);
+            encode(properties, prefix + "end", state.end);
+            encode(properties, prefix + "lastProcessed", state.lastProcessed);
+            properties.setProperty(prefix + "done", String.valueOf(state.done));
+            if (state.owner != null) {
+                properties.setProperty(prefix + "owner", state.owner);
+            }
+            properties.setProperty(prefix + "token", String.valueOf(state.token));
+            properties.setProperty(prefix + "expireAt", String.valueOf(state.expireAt));
+        }
+        return properties;
+    }
+
+    private void write(FileChannel channel, Properties properties) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(bytes, UTF_8)) {
+            properties.store(writer, null);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        channel.truncate(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+        channel.force(false);
+    }
+
+    private Id decode(String value) {
+        return value == null ? null : decoder.apply(value);
+    }
+
+    private void encode(Properties properties, String key, Id id) {
+        if (id != null) {
+            properties.setProperty(key, encoder.apply(id));
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.phantomthief.util;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * 向调用方提供的缓冲区中填充数据的游标数据访问对象接口
+ * <p>与{@link GetByCursorDAO}相比，每页不需要创建新的列表：遍历过程中同一个缓冲区在页与页之间反复使用，
+ * 配合{@link CursorIterator.GenericBuilder#recycler}还可以复用实体对象本身</p>
+ *
+ * @author agent
+ * @see CursorIterator.GenericBuilder#buildReusing
+ */
+@FunctionalInterface
+public interface FillingCursorDAO<Id, Entity> {
+
+    /**
+     * 从指定的游标开始（包括），读取至多limit条记录追加到缓冲区中
+     *
+     * @param cursor 起始游标，包括
+     * @param limit 最多读取的记录数
+     * @param buffer 调用时为空的缓冲区
+     */
+    void fillByCursor(@Nullable Id cursor, int limit, @Nonnull List<Entity> buffer);
+}
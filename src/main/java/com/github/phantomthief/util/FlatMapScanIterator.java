@@ -0,0 +1,131 @@
+package com.github.phantomthief.util;
+
+import static com.github.phantomthief.util.PipelinedIterator.getResult;
+import static com.google.common.util.concurrent.MoreExecutors.newSequentialExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.takeUninterruptibly;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * 嵌套扇出遍历的页迭代器.
+ * 外层实体在调用线程上逐条读取, 每条外层实体通过工厂函数得到一个内层页迭代器, 最多同时有 concurrency 个内层遍历在进行.
+ * 每个内层遍历的读页任务在各自的串行执行器上依次执行, 由消费方按需提交, 执行器线程不会因为消费方变慢而阻塞.
+ * 有序模式下按外层顺序输出, 每个内层遍历最多提前读取 {@link #ORDERED_PREFETCH} 页;
+ * 无序模式下哪个内层遍历的页先读完就先输出哪一页, 每个内层遍历最多有一个读页任务.
+ * 所有内层遍历的读页任务共享一个可选的信号量, 用于限制同时进行的数据访问调用数;
+ * 许可在调用线程上提交任务之前获取, 读页完成后释放, 执行器线程不会阻塞在信号量上.
+ *
+ * @author agent
+ */
+final class FlatMapScanIterator<E, P> extends AbstractIterator<P> {
+
+    private static final int ORDERED_PREFETCH = 2;
+    private static final Object END = new Object();
+
+    private final Iterator<? extends E> outer;
+    private final Function<? super E, Iterator<P>> innerFactory;
+    private final Executor executor;
+    private final int concurrency;
+    private final boolean ordered;
+    private final Semaphore fetchPermits;
+
+    private final Deque<InnerScan> active = new ArrayDeque<>();
+    private final BlockingQueue<InnerScan> completed = new LinkedBlockingQueue<>();
+
+    FlatMapScanIterator(Iterator<? extends E> outer,
+            Function<? super E, Iterator<P>> innerFactory, Executor executor,
+            int concurrency, boolean ordered, Semaphore fetchPermits) {
+        this.outer = outer;
+        this.innerFactory = innerFactory;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.ordered = ordered;
+        this.fetchPermits = fetchPermits;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected P computeNext() {
+        DefaultExecutors.checkNotNested(executor);
+        while (true) {
+            fill();
+            if (active.isEmpty()) {
+                return endOfData();
+            }
+            InnerScan inner = ordered ? active.peekFirst() : takeUninterruptibly(completed);
+            Object result = getResult(inner.pending.poll());
+            if (result == END) {
+                active.remove(inner);
+                continue;
+            }
+            inner.schedule();
+            return (P) result;
+        }
+    }
+
+    /**
+     * 补足在进行中的内层遍历, 外层实体在调用线程上读取
+     */
+    private void fill() {
+        while (active.size() < concurrency && outer.hasNext()) {
+            InnerScan inner = new InnerScan(innerFactory.apply(outer.next()));
+            active.add(inner);
+            inner.schedule();
+        }
+    }
+
+    private final class InnerScan {
+
+        private final Iterator<P> pages;
+        private final Executor sequentialExecutor = newSequentialExecutor(executor);
+        private final Deque<FutureTask<Object>> pending = new ArrayDeque<>();
+
+        private InnerScan(Iterator<P> pages) {
+            this.pages = pages;
+        }
+
+        /**
+         * 提交读页任务直到达到预读上限, 只在调用线程上执行.
+         * 读到末尾之后多提交的任务同样返回 END, 随内层遍历一起丢弃
+         */
+        private void schedule() {
+            int depth = ordered ? ORDERED_PREFETCH : 1;
+            while (pending.size() < depth) {
+                FutureTask<Object> task = new FutureTask<Object>(this::fetch) {
+
+                    @Override
+                    protected void done() {
+                        if (!ordered) {
+                            completed.add(InnerScan.this);
+                        }
+                    }
+                };
+                if (fetchPermits != null) {
+                    fetchPermits.acquireUninterruptibly();
+                }
+                pending.add(task);
+                sequentialExecutor.execute(task);
+            }
+        }
+
+        private Object fetch() {
+            try {
+                return pages.hasNext() ? pages.next() : END;
+            } finally {
+                if (fetchPermits != null) {
+                    fetchPermits.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.phantomthief.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 内存中的区间租约存储，用于同一个JVM内的多个工作线程或者测试
+ *
+ * @param <Id> ID类型泛型
+ * @author agent
+ */
+public class InMemoryRangeLeaseStore<Id> extends AbstractRangeLeaseStore<Id> {
+
+    private final List<RangeState<Id>> states = new ArrayList<>();
+
+    @Override
+    synchronized <T> T update(Function<List<RangeState<Id>>, T> operation) {
+        return operation.apply(states);
+    }
+}
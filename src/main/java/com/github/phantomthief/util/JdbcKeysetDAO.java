@@ -0,0 +1,443 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.sql.DataSource;
+
+/**
+ * 基于JDBC的键集分页数据访问对象
+ * <p>按游标列排序，用 {@code WHERE k1 > ? OR (k1 = ? AND k2 >= ?) ORDER BY k1, k2 LIMIT ?} 形式的查询逐页读取，
+ * 不使用OFFSET，每页的查询代价与遍历到的位置无关；
+ * 通过{@link Builder#rowValueComparison()}可以改用行值比较 {@code WHERE (k1, k2) >= (?, ?)}</p>
+ * <pre>{@code
+ * JdbcKeysetDAO<Long, User> userDAO = JdbcKeysetDAO.<Long, User> newBuilder()
+ *         .dataSource(dataSource)
+ *         .table("users")
+ *         .columns("id", "name")
+ *         .keyColumns("id")
+ *         .rowMapper(rs -> new User(rs.getLong(1), rs.getString(2)))
+ *         .build();
+ * try (JdbcKeysetDAO<Long, User>.Session session = userDAO.openSession()) {
+ *     CursorIterator<Long, User> users = CursorIterator.<Long, User> newGenericBuilder()
+ *             .cursorExtractor(User::getId)
+ *             .bufferSize(500)
+ *             .buildEx(session);
+ *     users.forEach(user -> {
+ *         // 访问单个用户
+ *     });
+ * }
+ * }</pre>
+ * <p>直接作为数据访问对象使用时每页从连接池借用一次连接，并在这个连接上重新准备预编译语句
+ * （语句随连接归还而关闭，能否复用取决于连接池或者驱动的语句缓存）；
+ * 通过{@link #openSession()}遍历时整个遍历只使用一个连接，预编译语句只准备一次并在页与页之间复用</p>
+ *
+ * @param <Id> ID类型泛型
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public class JdbcKeysetDAO<Id, Entity> implements GetByCursorDAO<Id, Entity> {
+
+    private final DataSource dataSource;
+    private final RowMapper<? extends Entity> rowMapper;
+    private final Function<? super Id, Object[]> cursorValues;
+    private final int keyCount;
+    private final boolean rowValue;
+    private final int fetchSize;
+    private final String firstPageSql;
+    private final String nextPageSql;
+
+    private JdbcKeysetDAO(Builder<Id, Entity> builder) {
+        this.dataSource = builder.dataSource;
+        this.rowMapper = builder.rowMapper;
+        this.cursorValues = builder.cursorValues;
+        this.keyCount = builder.keyColumns.length;
+        this.rowValue = builder.rowValue;
+        this.fetchSize = builder.fetchSize;
+
+        String select = "SELECT " + String.join(", ", builder.columns) + " FROM "
+                + builder.table;
+        String orderBy = " ORDER BY " + String.join(", ", builder.keyColumns) + " LIMIT ?";
+        String filter = builder.filter;
+        this.firstPageSql = select + (filter == null ? "" : " WHERE " + filter) + orderBy;
+        String keyset = rowValue ? rowValueCondition(builder.keyColumns)
+                                 : expandedCondition(builder.keyColumns);
+        this.nextPageSql = select + " WHERE " + (filter == null ? "" : "(" + filter + ") AND ")
+                + "(" + keyset + ")" + orderBy;
+    }
+
+    /**
+     * 创建JDBC键集分页数据访问对象的构造器
+     *
+     * @param <I> ID泛型类型
+     * @param <E> 返回实体对象的泛型类型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <I, E> Builder<I, E> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * (k1, k2, k3) >= (?, ?, ?)
+     */
+    private static String rowValueCondition(String[] keyColumns) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < keyColumns.length; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        return "(" + String.join(", ", keyColumns) + ") >= (" + placeholders + ")";
+    }
+
+    /**
+     * k1 > ? OR (k1 = ? AND k2 > ?) OR (k1 = ? AND k2 = ? AND k3 >= ?)
+     */
+    private static String expandedCondition(String[] keyColumns) {
+        StringBuilder condition = new StringBuilder();
+        for (int i = 0; i < keyColumns.length; i++) {
+            if (i > 0) {
+                condition.append(" OR ");
+            }
+            condition.append('(');
+            for (int j = 0; j < i; j++) {
+                condition.append(keyColumns[j]).append(" = ? AND ");
+            }
+            boolean last = i == keyColumns.length - 1;
+            condition.append(keyColumns[i]).append(last ? " >= ?" : " > ?").append(')');
+        }
+        return condition.toString();
+    }
+
+    /**
+     * 每页从数据源借用一次连接读取, 每次都重新准备预编译语句
+     */
+    @Override
+    public List<Entity> getByCursor(Id cursor, int limit) {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection
+                        .prepareStatement(cursor == null ? firstPageSql : nextPageSql)) {
+            return query(statement, cursor, limit);
+        } catch (SQLException e) {
+            throw new UncheckedSQLException(e);
+        }
+    }
+
+    /**
+     * 打开一个持有连接的会话，会话内复用预编译语句；会话不是线程安全的，使用完毕后需要关闭
+     *
+     * @return 会话对象，本身也是一个数据访问对象
+     */
+    @Nonnull
+    public Session openSession() {
+        try {
+            return new Session(dataSource.getConnection());
+        } catch (SQLException e) {
+            throw new UncheckedSQLException(e);
+        }
+    }
+
+    private List<Entity> query(PreparedStatement statement, Id cursor, int limit)
+            throws SQLException {
+        int parameter = 1;
+        if (cursor != null) {
+            Object[] values = cursorValues.apply(cursor);
+            checkState(values.length == keyCount, "expect %s cursor values, but got %s.",
+                    keyCount, values.length);
+            if (rowValue) {
+                for (Object value : values) {
+                    statement.setObject(parameter++, value);
+                }
+            } else {
+                for (int i = 0; i < keyCount; i++) {
+                    for (int j = 0; j <= i; j++) {
+                        statement.setObject(parameter++, values[j]);
+                    }
+                }
+            }
+        }
+        statement.setInt(parameter, limit);
+        statement.setFetchSize(fetchSize > 0 ? fetchSize : limit);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            List<Entity> result = new ArrayList<>(limit);
+            while (resultSet.next()) {
+                result.add(rowMapper.map(resultSet));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 结果集行映射函数
+     *
+     * @param <E> 实体对象泛型
+     */
+    @FunctionalInterface
+    public interface RowMapper<E> {
+
+        /**
+         * 把结果集的当前行映射为实体对象，不能移动结果集
+         *
+         * @param resultSet 结果集
+         * @return 实体对象
+         */
+        E map(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * 包装{@link SQLException}的非受检异常
+     */
+    public static class UncheckedSQLException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public UncheckedSQLException(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+
+    /**
+     * 持有一个连接的遍历会话，首页和后续页的预编译语句各准备一次
+     */
+    public final class Session implements GetByCursorDAO<Id, Entity>, AutoCloseable {
+
+        private final Connection connection;
+        private PreparedStatement firstPage;
+        private PreparedStatement nextPage;
+
+        private Session(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public List<Entity> getByCursor(Id cursor, int limit) {
+            try {
+                PreparedStatement statement;
+                if (cursor == null) {
+                    if (firstPage == null) {
+                        firstPage = connection.prepareStatement(firstPageSql);
+                    }
+                    statement = firstPage;
+                } else {
+                    if (nextPage == null) {
+                        nextPage = connection.prepareStatement(nextPageSql);
+                    }
+                    statement = nextPage;
+                }
+                return query(statement, cursor, limit);
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+        }
+
+        /**
+         * 关闭预编译语句并归还连接
+         */
+        @Override
+        public void close() {
+            // 依次关闭语句和连接, 前面的关闭失败时后面的仍然关闭
+            SQLException failure = close(firstPage, null);
+            failure = close(nextPage, failure);
+            failure = close(connection, failure);
+            if (failure != null) {
+                throw new UncheckedSQLException(failure);
+            }
+        }
+
+        private SQLException close(AutoCloseable resource, SQLException failure) {
+            if (resource == null) {
+                return failure;
+            }
+            try {
+                resource.close();
+                return failure;
+            } catch (Exception e) {
+                SQLException exception = e instanceof SQLException ? (SQLException) e
+                                                                   : new SQLException(e);
+                if (failure == null) {
+                    return exception;
+                }
+                failure.addSuppressed(exception);
+                return failure;
+            }
+        }
+    }
+
+    /**
+     * JDBC键集分页数据访问对象构造器
+     *
+     * @param <Id> ID泛型类型
+     * @param <Entity> 实体对象泛型类型
+     */
+    public static final class Builder<Id, Entity> {
+
+        private DataSource dataSource;
+        private String table;
+        private String[] columns = { "*" };
+        private String filter;
+        private String[] keyColumns;
+        private Function<? super Id, Object[]> cursorValues;
+        private RowMapper<? extends Entity> rowMapper;
+        private boolean rowValue;
+        private int fetchSize;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置数据源
+         *
+         * @param dataSource 数据源
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> dataSource(@Nonnull DataSource dataSource) {
+            this.dataSource = checkNotNull(dataSource);
+            return this;
+        }
+
+        /**
+         * 设置表名，原样拼接到SQL中
+         *
+         * @param table 表名
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> table(@Nonnull String table) {
+            this.table = checkNotNull(table);
+            return this;
+        }
+
+        /**
+         * 设置查询的列，默认为全部列，原样拼接到SQL中
+         *
+         * @param columns 查询的列
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> columns(@Nonnull String... columns) {
+            checkArgument(columns.length > 0);
+            this.columns = columns.clone();
+            return this;
+        }
+
+        /**
+         * 设置附加的过滤条件（不带参数），与游标条件以AND连接，原样拼接到SQL中
+         *
+         * @param filter 过滤条件，例如 {@code "status = 1"}
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> filter(@Nonnull String filter) {
+            this.filter = checkNotNull(filter);
+            return this;
+        }
+
+        /**
+         * 设置游标列，多个列时按列的顺序组成复合游标；需要有对应顺序的索引
+         *
+         * @param keyColumns 游标列，组合起来必须唯一
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> keyColumns(@Nonnull String... keyColumns) {
+            checkArgument(keyColumns.length > 0);
+            this.keyColumns = keyColumns.clone();
+            return this;
+        }
+
+        /**
+         * 设置复合游标的拆分函数，单个游标列时默认把游标本身作为参数
+         *
+         * @param cursorValues 传入游标，按游标列的顺序返回各列的值
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity>
+        cursorValues(@Nonnull Function<? super Id, Object[]> cursorValues) {
+            this.cursorValues = checkNotNull(cursorValues);
+            return this;
+        }
+
+        /**
+         * 设置结果集行映射函数
+         *
+         * @param rowMapper 行映射函数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> rowMapper(@Nonnull RowMapper<? extends Entity> rowMapper) {
+            this.rowMapper = checkNotNull(rowMapper);
+            return this;
+        }
+
+        /**
+         * 复合游标使用行值比较 {@code (k1, k2) >= (?, ?)}，默认展开为
+         * {@code k1 > ? OR (k1 = ? AND k2 >= ?)}；行值比较需要数据库支持并且能利用索引（例如PostgreSQL、MySQL 8）
+         *
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> rowValueComparison() {
+            this.rowValue = true;
+            return this;
+        }
+
+        /**
+         * 设置JDBC的fetch size，默认与每页的记录数相同，一次网络往返读取一整页
+         *
+         * @param fetchSize fetch size，大于等于1
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> fetchSize(int fetchSize) {
+            checkArgument(fetchSize > 0);
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * 构造JDBC键集分页数据访问对象
+         *
+         * @return 数据访问对象
+         */
+        @Nonnull
+        public JdbcKeysetDAO<Id, Entity> build() {
+            checkNotNull(dataSource, "dataSource is null.");
+            checkNotNull(table, "table is null.");
+            checkNotNull(keyColumns, "keyColumns is null.");
+            checkNotNull(rowMapper, "rowMapper is null.");
+            if (cursorValues == null) {
+                checkArgument(keyColumns.length == 1,
+                        "cursorValues is required for composite keys.");
+                cursorValues = id -> new Object[] { id };
+            }
+            return new JdbcKeysetDAO<>(this);
+        }
+    }
+}
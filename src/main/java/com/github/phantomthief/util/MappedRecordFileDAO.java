@@ -0,0 +1,434 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+
+/**
+ * 基于内存映射的有序记录文件数据访问对象
+ * <p>文件中的记录按游标递增排列，每条记录为定长，或者以4字节（大端）长度为前缀的变长记录。
+ * 定位游标时直接在映射上二分查找（变长记录先在稀疏索引上二分，再在索引块内顺序查找），
+ * 返回的列表在访问时才从映射中解码记录，读取过程中不拷贝记录字节</p>
+ * <pre>{@code
+ * try (MappedRecordFileDAO<Long, Order> dao = MappedRecordFileDAO.<Long, Order> newBuilder()
+ *         .fixedLength(32)
+ *         .keyDecoder(record -> record.getLong(0))
+ *         .decoder(Order::decode)
+ *         .build(snapshotFile)) {
+ *     CursorIterator<Long, Order> orders = CursorIterator.<Long, Order> newGenericBuilder()
+ *             .cursorExtractor(Order::getId)
+ *             .bufferSize(1000)
+ *             .buildEx(dao);
+ * }
+ * }</pre>
+ * <p>超过单个映射上限的文件使用多个映射；文件在打开期间不能被修改。线程安全</p>
+ *
+ * @param <Id> ID类型泛型
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public class MappedRecordFileDAO<Id, Entity> implements GetByCursorDAO<Id, Entity>, Closeable {
+
+    private static final int LENGTH_PREFIX = Integer.BYTES;
+    private static final int DEFAULT_INDEX_INTERVAL = 128;
+    private static final int DEFAULT_MAPPING_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final int recordLength;
+    private final Function<ByteBuffer, ? extends Id> keyDecoder;
+    private final Function<ByteBuffer, ? extends Entity> decoder;
+    private final Comparator<? super Id> comparator;
+    private final int indexInterval;
+    private final long mappingSize;
+
+    /**
+     * 第k个映射从 k * mappingSize 开始, 长度为两倍的 mappingSize,
+     * 起始位置落在 [k * mappingSize, (k + 1) * mappingSize) 的记录
+     * 只要不超过 mappingSize 就一定完整地落在第k个映射内
+     */
+    private final ByteBuffer[] mappings;
+    private final long fileSize;
+    private final long recordCount;
+
+    /**
+     * 变长记录的稀疏索引: 第 i * indexInterval 条记录的起始位置
+     */
+    private final long[] index;
+    private volatile boolean closed;
+
+    private MappedRecordFileDAO(Builder<Id, Entity> builder, Path file) throws IOException {
+        this.recordLength = builder.recordLength;
+        this.keyDecoder = builder.keyDecoder;
+        this.decoder = builder.decoder;
+        this.comparator = builder.comparator;
+        this.indexInterval = builder.indexInterval;
+        this.mappingSize = builder.mappingSize;
+        this.channel = FileChannel.open(file, READ);
+        try {
+            long size = channel.size();
+            this.fileSize = size;
+            int mappingCount = (int) ((size + mappingSize - 1) / mappingSize);
+            this.mappings = new ByteBuffer[mappingCount];
+            for (int i = 0; i < mappingCount; i++) {
+                long position = i * mappingSize;
+                long length = Math.min(Integer.MAX_VALUE,
+                        Math.min(size - position, mappingSize * 2));
+                mappings[i] = channel.map(READ_ONLY, position, length);
+            }
+            if (recordLength > 0) {
+                checkState(size % recordLength == 0, "file size %s is not a multiple of %s.",
+                        size, recordLength);
+                this.recordCount = size / recordLength;
+                this.index = null;
+            } else {
+                long[] offsets = new long[16];
+                int indexSize = 0;
+                long count = 0;
+                long offset = 0;
+                while (offset < size) {
+                    if (count % indexInterval == 0) {
+                        if (indexSize == offsets.length) {
+                            offsets = Arrays.copyOf(offsets, indexSize * 2);
+                        }
+                        offsets[indexSize++] = offset;
+                    }
+                    checkState(offset + LENGTH_PREFIX <= size, "truncated record at %s.", offset);
+                    int length = mappingOf(offset).getInt(positionOf(offset));
+                    checkState(length >= 0 && LENGTH_PREFIX + length <= mappingSize,
+                            "invalid record length %s at %s.", length, offset);
+                    offset += LENGTH_PREFIX + length;
+                    count++;
+                }
+                checkState(offset == size, "truncated record at %s.", offset - LENGTH_PREFIX);
+                this.recordCount = count;
+                this.index = Arrays.copyOf(offsets, indexSize);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 创建记录文件数据访问对象的构造器
+     *
+     * @param <I> ID泛型类型
+     * @param <E> 返回实体对象的泛型类型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <I, E> Builder<I, E> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * @return 文件中的记录数
+     */
+    public long size() {
+        return recordCount;
+    }
+
+    @Override
+    public List<Entity> getByCursor(Id cursor, int limit) {
+        checkArgument(limit > 0);
+        checkState(!closed, "file is closed.");
+        long[] offsets;
+        int count;
+        if (recordLength > 0) {
+            long first = cursor == null ? 0 : lowerBound(cursor);
+            count = (int) Math.min(limit, recordCount - first);
+            offsets = new long[Math.max(count, 0)];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = (first + i) * recordLength;
+            }
+        } else {
+            long offset = cursor == null ? 0 : seek(cursor);
+            offsets = new long[(int) Math.min(limit, recordCount)];
+            count = 0;
+            while (count < offsets.length && offset < fileSize) {
+                offsets[count++] = offset;
+                offset += LENGTH_PREFIX + mappingOf(offset).getInt(positionOf(offset));
+            }
+        }
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        return new RecordList(offsets, count);
+    }
+
+    /**
+     * 关闭文件，关闭后不能再读取；映射占用的地址空间在被垃圾回收后释放
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    /**
+     * 定长记录: 第一条游标大于等于 cursor 的记录序号
+     */
+    private long lowerBound(Id cursor) {
+        long low = 0;
+        long high = recordCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (comparator.compare(keyAt(middle * recordLength), cursor) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 变长记录: 第一条游标大于等于 cursor 的记录位置
+     */
+    private long seek(Id cursor) {
+        // 最后一个游标小于 cursor 的索引块
+        int low = 0;
+        int high = index.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(keyAt(index[middle]), cursor) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == 0) {
+            return 0;
+        }
+        long offset = index[low - 1];
+        while (offset < fileSize && comparator.compare(keyAt(offset), cursor) < 0) {
+            offset += LENGTH_PREFIX + mappingOf(offset).getInt(positionOf(offset));
+        }
+        return offset;
+    }
+
+    private Id keyAt(long offset) {
+        return keyDecoder.apply(record(offset));
+    }
+
+    /**
+     * @return 只包含一条记录内容的只读视图, 不拷贝字节
+     */
+    private ByteBuffer record(long offset) {
+        ByteBuffer mapping = mappingOf(offset);
+        int position = positionOf(offset);
+        int length = recordLength;
+        if (length <= 0) {
+            length = mapping.getInt(position);
+            position += LENGTH_PREFIX;
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.limit(position + length).position(position);
+        return view.slice();
+    }
+
+    private ByteBuffer mappingOf(long offset) {
+        return mappings[(int) (offset / mappingSize)];
+    }
+
+    private int positionOf(long offset) {
+        return (int) (offset % mappingSize);
+    }
+
+    /**
+     * 按需解码的记录列表, 每条记录最多解码一次
+     */
+    private final class RecordList extends AbstractList<Entity> implements RandomAccess {
+
+        private final long[] offsets;
+        private final int size;
+        private final Object[] decoded;
+
+        private RecordList(long[] offsets, int size) {
+            this.offsets = offsets;
+            this.size = size;
+            this.decoded = new Object[size];
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Entity get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index:" + index + ", size:" + size);
+            }
+            Object entity = decoded[index];
+            if (entity == null) {
+                entity = decoder.apply(record(offsets[index]));
+                decoded[index] = entity;
+            }
+            return (Entity) entity;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * 记录文件数据访问对象构造器
+     *
+     * @param <Id> ID泛型类型
+     * @param <Entity> 实体对象泛型类型
+     */
+    public static final class Builder<Id, Entity> {
+
+        private int recordLength;
+        private boolean lengthPrefixed;
+        private Function<ByteBuffer, ? extends Id> keyDecoder;
+        private Function<ByteBuffer, ? extends Entity> decoder;
+        private Comparator<? super Id> comparator;
+        private int indexInterval = DEFAULT_INDEX_INTERVAL;
+        private long mappingSize = DEFAULT_MAPPING_SIZE;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置记录为定长记录
+         *
+         * @param recordLength 每条记录的字节数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> fixedLength(int recordLength) {
+            checkArgument(recordLength > 0);
+            this.recordLength = recordLength;
+            this.lengthPrefixed = false;
+            return this;
+        }
+
+        /**
+         * 设置记录为以4字节（大端）长度为前缀的变长记录，长度不包括前缀本身
+         *
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> lengthPrefixed() {
+            this.lengthPrefixed = true;
+            this.recordLength = 0;
+            return this;
+        }
+
+        /**
+         * 设置游标解码函数，定位游标时只解码游标而不解码整条记录
+         *
+         * @param keyDecoder 传入一条记录内容的只读视图（position为0），返回记录的游标
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity>
+        keyDecoder(@Nonnull Function<ByteBuffer, ? extends Id> keyDecoder) {
+            this.keyDecoder = checkNotNull(keyDecoder);
+            return this;
+        }
+
+        /**
+         * 设置记录解码函数，只在访问返回列表中的元素时调用
+         *
+         * @param decoder 传入一条记录内容的只读视图（position为0），返回实体对象；视图直接引用映射，不能在函数外保留
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity>
+        decoder(@Nonnull Function<ByteBuffer, ? extends Entity> decoder) {
+            this.decoder = checkNotNull(decoder);
+            return this;
+        }
+
+        /**
+         * 设置游标的比较器，不设置时游标需要实现{@link Comparable}
+         *
+         * @param comparator 游标比较器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> comparator(@Nonnull Comparator<? super Id> comparator) {
+            this.comparator = checkNotNull(comparator);
+            return this;
+        }
+
+        /**
+         * 设置变长记录稀疏索引的间隔，默认每128条记录索引一条
+         *
+         * @param indexInterval 索引间隔，大于等于1
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> indexInterval(int indexInterval) {
+            checkArgument(indexInterval > 0);
+            this.indexInterval = indexInterval;
+            return this;
+        }
+
+        /**
+         * 设置单个映射的步长，默认为1GB；单条记录（包括长度前缀）不能超过这个大小
+         *
+         * @param mappingSize 映射步长，范围为(0, 1GB]
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> mappingSize(int mappingSize) {
+            checkArgument(mappingSize > 0 && mappingSize <= DEFAULT_MAPPING_SIZE);
+            this.mappingSize = mappingSize;
+            return this;
+        }
+
+        /**
+         * 打开记录文件
+         *
+         * @param file 按游标递增排列的记录文件
+         * @return 记录文件数据访问对象，使用完毕后需要关闭
+         */
+        @SuppressWarnings("unchecked")
+        @Nonnull
+        public MappedRecordFileDAO<Id, Entity> build(@Nonnull Path file) {
+            checkNotNull(file);
+            checkArgument(recordLength > 0 || lengthPrefixed,
+                    "fixedLength or lengthPrefixed is required.");
+            checkArgument(recordLength <= mappingSize, "record is larger than mapping size.");
+            checkNotNull(keyDecoder, "keyDecoder is null.");
+            checkNotNull(decoder, "decoder is null.");
+            if (comparator == null) {
+                comparator = (Comparator<? super Id>) Comparator.naturalOrder();
+            }
+            try {
+                return new MappedRecordFileDAO<>(this, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
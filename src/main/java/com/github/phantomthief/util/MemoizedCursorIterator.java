@@ -0,0 +1,46 @@
+package com.github.phantomthief.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * 可重放的游标迭代器，由{@link CursorIterator#memoize}创建
+ * <p>记录的页和溢出到磁盘的临时文件在{@link #close()}时释放，关闭之后不能再迭代；
+ * 由它转换得到的游标迭代器（{@link #mapPages}等）共享同一份记录，也随之失效</p>
+ * <pre>{@code
+ * try (MemoizedCursorIterator<Long, User> users = CursorIterator.<Long, User> newGenericBuilder()
+ *         .start(0L)
+ *         .cursorExtractor(User::getId)
+ *         .buildEx(userDAO::getUsers)
+ *         .memoize(100_000, serializer)) {
+ *     long count = users.stream().count();
+ *     users.forEach(this::process);
+ * }
+ * }</pre>
+ *
+ * @param <Id> ID类型泛型
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public class MemoizedCursorIterator<Id, Entity> extends CursorIterator<Id, Entity>
+        implements AutoCloseable {
+
+    private final MemoizedPages<Entity> pages;
+
+    MemoizedCursorIterator(MemoizedPages<Entity> pages) {
+        super(pages);
+        this.pages = pages;
+    }
+
+    /**
+     * 释放记录的页，关闭并删除溢出的临时文件；重复调用没有影响
+     */
+    @Override
+    public void close() {
+        try {
+            pages.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * 可重放的页序列.
+ * 第一次读取上游时记录每一页, 之后的迭代直接从记录中读取, 只有记录之外的部分才会继续读取上游.
+ * 内存中保存的实体数超过预算后, 后续的页通过序列化器写入临时文件, 读取时使用内存映射.
+ * 临时文件按 {@link #CHUNK_SIZE} 分块映射, 每一块在写入增长之后才会重新映射, 重放时不会重复映射.
+ * 临时文件在打开之后就被删除 (DELETE_ON_CLOSE), {@link #close()} 时释放文件句柄和记录.
+ * 多个迭代器可以同时读取, 读取上游由 fetchLock 串行化, 已记录的页的读取不会等待上游.
+ *
+ * @author agent
+ */
+final class MemoizedPages<Entity> implements Iterable<List<Entity>>, Closeable {
+
+    /**
+     * 每一块的映射大小, 一页的序列化结果不会跨越两块
+     */
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final Iterable<List<Entity>> source;
+    private final long maxHeapEntities;
+    private final PageSerializer<Entity> serializer;
+
+    /**
+     * 读取上游和写入临时文件只在持有这个锁时进行; 记录和映射的状态由 this 保护
+     */
+    private final Object fetchLock = new Object();
+    private final List<Object> recorded = new ArrayList<>();
+    private long heapEntities;
+    private Iterator<List<Entity>> upstream;
+    private boolean complete;
+    private boolean closed;
+
+    private FileChannel spillChannel;
+    private long spillPosition;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    MemoizedPages(Iterable<List<Entity>> source, long maxHeapEntities,
+            @Nullable PageSerializer<Entity> serializer) {
+        this.source = source;
+        this.maxHeapEntities = maxHeapEntities;
+        this.serializer = serializer;
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<List<Entity>> iterator() {
+        return new AbstractIterator<List<Entity>>() {
+
+            private int pageIndex = 0;
+
+            @Override
+            protected List<Entity> computeNext() {
+                List<Entity> page = getPage(pageIndex);
+                if (page == null) {
+                    return endOfData();
+                }
+                pageIndex++;
+                return page;
+            }
+        };
+    }
+
+    @Nullable
+    private List<Entity> getPage(int pageIndex) {
+        Object slot = recordedSlot(pageIndex);
+        if (slot != null) {
+            return load(slot);
+        }
+        synchronized (fetchLock) {
+            // 等待锁期间其它迭代器可能已经读取了这一页
+            slot = recordedSlot(pageIndex);
+            if (slot != null) {
+                return load(slot);
+            }
+            synchronized (this) {
+                if (complete) {
+                    return null;
+                }
+                if (upstream == null) {
+                    upstream = source.iterator();
+                }
+            }
+            if (!upstream.hasNext()) {
+                synchronized (this) {
+                    complete = true;
+                    upstream = null;
+                }
+                return null;
+            }
+            List<Entity> page = upstream.next();
+            record(page);
+            return page;
+        }
+    }
+
+    /**
+     * @return 已记录的页, 还没有记录时返回null
+     */
+    @Nullable
+    private synchronized Object recordedSlot(int pageIndex) {
+        checkState(!closed, "memoized pages is closed.");
+        return pageIndex < recorded.size() ? recorded.get(pageIndex) : null;
+    }
+
+    /**
+     * 只在持有 fetchLock 时调用
+     */
+    private void record(List<Entity> page) {
+        boolean onHeap;
+        synchronized (this) {
+            onHeap = serializer == null || heapEntities + page.size() <= maxHeapEntities;
+            if (onHeap) {
+                heapEntities += page.size();
+                recorded.add(page);
+            }
+        }
+        if (!onHeap) {
+            SpilledPage spilled = spill(page);
+            synchronized (this) {
+                recorded.add(spilled);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entity> load(Object slot) {
+        if (slot instanceof SpilledPage) {
+            return serializer.deserialize(read((SpilledPage) slot));
+        }
+        return (List<Entity>) slot;
+    }
+
+    /**
+     * @return 这一页在映射中的只读视图, 映射的块不够长时 (这一块在上次映射之后又写入了) 重新映射这一块
+     */
+    private synchronized ByteBuffer read(SpilledPage spilled) {
+        checkState(!closed, "memoized pages is closed.");
+        int chunkIndex = (int) (spilled.position / CHUNK_SIZE);
+        int offset = (int) (spilled.position % CHUNK_SIZE);
+        while (chunks.size() <= chunkIndex) {
+            chunks.add(null);
+        }
+        MappedByteBuffer chunk = chunks.get(chunkIndex);
+        if (chunk == null || chunk.capacity() < offset + spilled.length) {
+            long chunkStart = chunkIndex * CHUNK_SIZE;
+            long size = Math.min(CHUNK_SIZE, spillPosition - chunkStart);
+            try {
+                chunk = spillChannel.map(READ_ONLY, chunkStart, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunks.set(chunkIndex, chunk);
+        }
+        ByteBuffer view = chunk.duplicate();
+        ((Buffer) view).limit(offset + spilled.length).position(offset);
+        return view.slice();
+    }
+
+    /**
+     * 只在持有 fetchLock 时调用
+     */
+    private SpilledPage spill(List<Entity> page) {
+        ByteBuffer buffer = ByteBuffer.wrap(serializer.serialize(page));
+        checkArgument(buffer.remaining() <= CHUNK_SIZE, "spilled page is larger than 1GB.");
+        try {
+            synchronized (this) {
+                checkState(!closed, "memoized pages is closed.");
+                if (spillChannel == null) {
+                    Path file = Files.createTempFile("cursor-iterator-", ".spill");
+                    spillChannel = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+                }
+            }
+            long position = spillPosition;
+            if (position % CHUNK_SIZE + buffer.remaining() > CHUNK_SIZE) {
+                // 不跨越两块, 从下一块的开头写入
+                position = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+            }
+            SpilledPage spilled = new SpilledPage(position, buffer.remaining());
+            while (buffer.hasRemaining()) {
+                position += spillChannel.write(buffer, position);
+            }
+            synchronized (this) {
+                spillPosition = position;
+            }
+            return spilled;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 释放记录的页和临时文件, 之后不能再迭代; 正在读取上游的迭代器读完当前页之后才会关闭
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (fetchLock) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                recorded.clear();
+                chunks.clear();
+                upstream = null;
+                if (spillChannel != null) {
+                    spillChannel.close();
+                    spillChannel = null;
+                }
+            }
+        }
+    }
+
+    private static final class SpilledPage {
+
+        private final long position;
+        private final int length;
+
+        private SpilledPage(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
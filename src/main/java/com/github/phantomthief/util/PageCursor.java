@@ -0,0 +1,68 @@
+package com.github.phantomthief.util;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 页游标, 在页与页之间移动.
+ * 当前页以 page 中 [from, to) 的区间描述, 截取页首或页尾时不需要创建子列表视图.
+ *
+ * @author agent
+ */
+abstract class PageCursor<E> {
+
+    List<E> page;
+    int from;
+    int to;
+
+    /**
+     * 移动到下一页, 返回的页一定不为空
+     *
+     * @return 没有更多的页时返回false
+     */
+    abstract boolean advance();
+
+    /**
+     * @return 下一次 {@link #advance} 是否会复用 (清空并重新填充) 当前页的列表和实体
+     */
+    boolean reusesPages() {
+        return false;
+    }
+
+    /**
+     * @return 当前页的列表视图, 只在需要 {@link List} 对象时使用
+     */
+    final List<E> current() {
+        return from == 0 && to == page.size() ? page : page.subList(from, to);
+    }
+
+    static <E> PageCursor<E> of(Iterable<List<E>> pages) {
+        if (pages instanceof PageScroller) {
+            return ((PageScroller<?, E>) pages).cursor();
+        }
+        return new IteratorPageCursor<>(pages.iterator());
+    }
+
+    private static final class IteratorPageCursor<E> extends PageCursor<E> {
+
+        private final Iterator<List<E>> iterator;
+
+        private IteratorPageCursor(Iterator<List<E>> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        boolean advance() {
+            while (iterator.hasNext()) {
+                List<E> next = iterator.next();
+                if (!next.isEmpty()) {
+                    page = next;
+                    from = 0;
+                    to = next.size();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.util.concurrent.MoreExecutors.newSequentialExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.putUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.takeUninterruptibly;
+import static java.util.Collections.unmodifiableList;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * 批量导出器，把游标迭代器遍历的数据编码后写入文件
+ * <p>调用线程负责读取和编码，编码结果写入池化的直接内存缓冲区，写满的缓冲区交给写线程通过{@link FileChannel}写入文件，
+ * 读取、编码和磁盘写入可以同时进行；缓冲区用完时调用线程等待写线程归还，不会无限占用内存</p>
+ * <p>缓冲区池属于导出器，第一次使用时按需分配，多次导出（包括同时进行的导出）复用同一组缓冲区，
+ * 不会每次导出都重新分配直接内存</p>
+ * <pre>{@code
+ * PageExporter<User> exporter = PageExporter.<User> newBuilder()
+ *         .encoder((user, buffer) -> buffer.put(toJsonLine(user)))
+ *         .directory(Paths.get("/data/export"))
+ *         .fileNamePattern("users-%05d.ndjson")
+ *         .rollSize(1L << 30)
+ *         .progressListener(10, SECONDS, progress -> logger.info("exporting: {}", progress))
+ *         .build();
+ * ExportResult result = exporter.export(users.prefetch(1));
+ * logger.info("export {} bytes, {} bytes/s", result.getBytes(), result.getBytesPerSecond());
+ * }</pre>
+ *
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public class PageExporter<Entity> {
+
+    private final EntityEncoder<? super Entity> encoder;
+    private final Path directory;
+    private final String fileNamePattern;
+    private final long rollSize;
+    private final int bufferSize;
+    private final int bufferCount;
+    private final Executor executor;
+    private final long reportIntervalNanos;
+    private final Consumer<? super ExportResult> progressListener;
+
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+
+    private PageExporter(Builder<Entity> builder) {
+        this.encoder = builder.encoder;
+        this.directory = builder.directory;
+        this.fileNamePattern = builder.fileNamePattern;
+        this.rollSize = builder.rollSize;
+        this.bufferSize = builder.bufferSize;
+        this.bufferCount = builder.bufferCount;
+        this.executor = builder.executor;
+        this.reportIntervalNanos = builder.reportIntervalNanos;
+        this.progressListener = builder.progressListener;
+        this.freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+    }
+
+    /**
+     * 创建导出器的构造器
+     *
+     * @param <E> 实体对象泛型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <E> Builder<E> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 导出全部数据，直到写入完成后返回
+     *
+     * @param entities 要导出的数据，通常是{@link CursorIterator}或者{@link CursorIteratorEx}
+     * @return 导出结果
+     */
+    @Nonnull
+    public ExportResult export(@Nonnull Iterable<? extends Entity> entities) {
+        checkNotNull(entities);
+        return new ExportRun().run(entities);
+    }
+
+    /**
+     * 从导出器的缓冲区池中取出一个空的缓冲区, 池中没有且还没有分配满时分配一个新的
+     */
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            if (allocatedBuffers.getAndIncrement() < bufferCount) {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+            allocatedBuffers.decrementAndGet();
+            buffer = takeUninterruptibly(freeBuffers);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        putUninterruptibly(freeBuffers, buffer);
+    }
+
+    /**
+     * 一次导出过程, 持有当前写入的文件, 缓冲区借用导出器的缓冲区池
+     */
+    private final class ExportRun {
+
+        private final long startNanos = System.nanoTime();
+        private final Executor writer = newSequentialExecutor(executor);
+        private final List<Path> files = new ArrayList<>();
+        private volatile Throwable writeFailure;
+        private volatile long count;
+
+        // 以下字段只在写线程上访问
+        private FileChannel channel;
+        private long fileBytes;
+        private long totalBytes;
+        private long lastReportNanos = startNanos;
+
+        private ExportResult run(Iterable<? extends Entity> entities) {
+            // 调用线程持有的缓冲区, 交给写线程之后置为null, 失败时只归还仍由调用线程持有的缓冲区
+            ByteBuffer buffer = null;
+            try {
+                buffer = takeBuffer();
+                long encoded = 0;
+                for (Entity entity : entities) {
+                    int mark = buffer.position();
+                    try {
+                        encoder.encode(entity, buffer);
+                    } catch (BufferOverflowException e) {
+                        if (mark == 0) {
+                            throw new IllegalStateException("entity is larger than buffer size:"
+                                    + bufferSize + ", entity:" + entity);
+                        }
+                        buffer.position(mark);
+                        submit(buffer);
+                        buffer = null;
+                        checkWriteFailure();
+                        buffer = takeBuffer();
+                        encodeToEmpty(entity, buffer);
+                    }
+                    count = ++encoded;
+                }
+                if (buffer.position() > 0) {
+                    submit(buffer);
+                } else {
+                    releaseBuffer(buffer);
+                }
+                buffer = null;
+            } catch (Throwable e) {
+                if (buffer != null) {
+                    releaseBuffer(buffer);
+                }
+                closeQuietly();
+                throw e;
+            }
+            finish();
+            ExportResult result = snapshot();
+            if (progressListener != null) {
+                progressListener.accept(result);
+            }
+            return result;
+        }
+
+        private ExportResult snapshot() {
+            return new ExportResult(count, totalBytes, unmodifiableList(new ArrayList<>(files)),
+                    System.nanoTime() - startNanos);
+        }
+
+        private void encodeToEmpty(Entity entity, ByteBuffer buffer) {
+            try {
+                encoder.encode(entity, buffer);
+            } catch (BufferOverflowException e) {
+                throw new IllegalStateException("entity is larger than buffer size:" + bufferSize
+                        + ", entity:" + entity, e);
+            }
+        }
+
+        /**
+         * 把写满的缓冲区交给写线程, 写入（或者失败）后由写线程归还到缓冲区池
+         */
+        private void submit(ByteBuffer buffer) {
+            buffer.flip();
+            writer.execute(() -> {
+                try {
+                    if (writeFailure == null) {
+                        write(buffer);
+                        reportIfDue();
+                    }
+                } catch (Throwable e) {
+                    writeFailure = e;
+                } finally {
+                    releaseBuffer(buffer);
+                }
+            });
+        }
+
+        private void reportIfDue() {
+            if (progressListener == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - lastReportNanos >= reportIntervalNanos) {
+                lastReportNanos = now;
+                progressListener.accept(snapshot());
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            if (channel != null && fileBytes > 0 && fileBytes + buffer.remaining() > rollSize) {
+                channel.close();
+                channel = null;
+            }
+            if (channel == null) {
+                Path file = directory.resolve(String.format(fileNamePattern, files.size()));
+                channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING);
+                files.add(file);
+                fileBytes = 0;
+            }
+            int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            fileBytes += length;
+            totalBytes += length;
+        }
+
+        private void closeQuietly() {
+            try {
+                finish();
+            } catch (RuntimeException e) {
+                // 以读取或编码时的异常为准
+            }
+        }
+
+        /**
+         * 等待所有写入完成并关闭文件, 写入完成后写线程上的字段对调用线程可见
+         */
+        private void finish() {
+            FutureTask<Void> close = new FutureTask<>(() -> {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                return null;
+            });
+            writer.execute(close);
+            try {
+                PipelinedIterator.getResult(close);
+            } catch (UncheckedExecutionException e) {
+                if (writeFailure == null) {
+                    writeFailure = e.getCause();
+                }
+            }
+            checkWriteFailure();
+        }
+
+        private void checkWriteFailure() {
+            Throwable failure = writeFailure;
+            if (failure != null) {
+                throwIfUnchecked(failure);
+                if (failure instanceof IOException) {
+                    throw new UncheckedIOException((IOException) failure);
+                }
+                throw new UncheckedExecutionException(failure);
+            }
+        }
+    }
+
+    /**
+     * 导出结果，导出过程中定期报告的进度也使用同样的结构
+     */
+    public static final class ExportResult {
+
+        private final long count;
+        private final long bytes;
+        private final List<Path> files;
+        private final long elapsedNanos;
+
+        private ExportResult(long count, long bytes, List<Path> files, long elapsedNanos) {
+            this.count = count;
+            this.bytes = bytes;
+            this.files = files;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return 导出的实体数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return 写入的总字节数
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return 按顺序写入的文件，导出过程中的进度包括正在写入的文件
+         */
+        @Nonnull
+        public List<Path> getFiles() {
+            return files;
+        }
+
+        /**
+         * @return 导出耗时，单位纳秒
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return 平均每秒写入的字节数
+         */
+        public double getBytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes * 1_000_000_000D / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "ExportResult [count=" + count + ", bytes=" + bytes + ", files=" + files.size()
+                    + ", bytesPerSecond=" + (long) getBytesPerSecond() + "]";
+        }
+    }
+
+    /**
+     * 导出器构造器
+     *
+     * @param <Entity> 实体对象泛型
+     */
+    public static final class Builder<Entity> {
+
+        private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+        private static final int DEFAULT_BUFFER_COUNT = 4;
+
+        private EntityEncoder<? super Entity> encoder;
+        private Path directory;
+        private String fileNamePattern = "part-%05d";
+        private long rollSize = Long.MAX_VALUE;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private int bufferCount = DEFAULT_BUFFER_COUNT;
+        private Executor executor;
+        private long reportIntervalNanos;
+        private Consumer<? super ExportResult> progressListener;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置实体编码器
+         *
+         * @param encoder 实体编码器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Entity> encoder(@Nonnull EntityEncoder<? super Entity> encoder) {
+            this.encoder = checkNotNull(encoder);
+            return this;
+        }
+
+        /**
+         * 设置输出目录，不存在时自动创建
+         *
+         * @param directory 输出目录
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Entity> directory(@Nonnull Path directory) {
+            this.directory = checkNotNull(directory);
+            return this;
+        }
+
+        /**
+         * 设置文件名格式，参数为从0开始的文件序号，默认为"part-%05d"
+         *
+         * @param fileNamePattern 文件名格式，参考{@link String#format}
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Entity> fileNamePattern(@Nonnull String fileNamePattern) {
+            this.fileNamePattern = checkNotNull(fileNamePattern);
+            return this;
+        }
+
+        /**
+         * 设置单个文件的大小上限，超出时写入下一个文件；切换只发生在缓冲区之间，不会切断单个实体。默认不切换
+         *
+         * @param rollSize 单个文件的大小上限，单位字节
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Entity> rollSize(long rollSize) {
+            checkArgument(rollSize > 0);
+            this.rollSize = rollSize;
+            return this;
+        }
+
+        /**
+         * 设置单个缓冲区的大小，必须大于单个实体编码后的大小，默认为1MB
+         *
+         * @param bufferSize 单个缓冲区的大小，单位字节
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Entity> bufferSize(int bufferSize) {
+            checkArgument(bufferSize > 0);
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * 设置缓冲区个数，大于等于2时编码与写入才能同时进行，默认为4
+         * <p>导出器最多分配这么多个缓冲区，同一个导出器上同时进行的导出共享这些缓冲区</p>
+         *
+         * @param bufferCount 缓冲区个数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Entity> bufferCount(int bufferCount) {
+            checkArgument(bufferCount > 0);
+            this.bufferCount = bufferCount;
+            return this;
+        }
+
+        /**
+         * 设置执行写入的执行器，同一次导出的写入依次串行执行，默认使用默认执行器
+         *
+         * @param executor 执行器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Entity> executor(@Nonnull Executor executor) {
+            this.executor = checkNotNull(executor);
+            return this;
+        }
+
+        /**
+         * 设置导出进度的监听器，在写线程上每隔一段时间（在一次写入完成后检查）报告一次已经导出的数据量和吞吐，
+         * 导出完成时再报告一次最终结果
+         *
+         * @param interval 报告间隔
+         * @param unit 时间单位
+         * @param listener 进度监听器，不应执行耗时操作，否则会拖慢写入
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Entity> progressListener(long interval, @Nonnull TimeUnit unit,
+                @Nonnull Consumer<? super ExportResult> listener) {
+            checkArgument(interval >= 0);
+            this.reportIntervalNanos = unit.toNanos(interval);
+            this.progressListener = checkNotNull(listener);
+            return this;
+        }
+
+        /**
+         * 构造导出器
+         *
+         * @return 导出器对象
+         */
+        @Nonnull
+        public PageExporter<Entity> build() {
+            checkNotNull(encoder, "encoder is null.");
+            checkNotNull(directory, "directory is null.");
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (executor == null) {
+                executor = DefaultExecutors.shared();
+            }
+            return new PageExporter<>(this);
+        }
+    }
+}
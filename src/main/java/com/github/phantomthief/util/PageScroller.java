@@ -1,11 +1,13 @@
 package com.github.phantomthief.util;
 
-import static java.util.Collections.emptyList;
-
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.IntSupplier;
+import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 
@@ -14,6 +16,8 @@ import com.google.common.collect.AbstractIterator;
 /**
  * 按页从数据库里面取.
  * PageScroller 是无状态的, 所有状态全放在 iterator 中.
+ * 使用 {@link FillingCursorDAO} 时, 逐条遍历的 {@link #cursor()} 在页与页之间复用同一个缓冲区,
+ * 按页遍历的 {@link #iterator()} 会把页交给调用方保存, 所以每页使用新的缓冲区.
  *
  * @author lixian
  */
@@ -23,15 +27,37 @@ class PageScroller<Id, Entity> implements Iterable<List<Entity>> {
     static final boolean MODE_TRIM_LAST = false;
 
     private final GetByCursorDAO<Id, Entity> dao;
+    private final FillingCursorDAO<Id, Entity> fillingDao;
     private final Id initCursor;
     private final IntSupplier bufferSize;
     private final Function<Entity, Id> entityIdFunction;
     private int maxNumberOfPages = Integer.MAX_VALUE;
     private final boolean mode;
+    private ScanProgress<? super Id> progress;
+    private Consumer<? super Entity> recycler;
+    private Id end;
+    private Comparator<? super Id> endComparator;
+    private Predicate<? super Entity> until;
+    private WriteBehindBuffer<?> writeBehind;
 
     PageScroller(GetByCursorDAO<Id, Entity> dao, Id initCursor, IntSupplier bufferSize,
             Function<Entity, Id> entityIdFunction, boolean mode) {
+        this(dao, null, initCursor, bufferSize, entityIdFunction, mode);
+    }
+
+    /**
+     * 填充缓冲区的数据访问对象只支持 {@link #MODE_TRIM_LAST}
+     */
+    PageScroller(FillingCursorDAO<Id, Entity> fillingDao, Id initCursor, IntSupplier bufferSize,
+            Function<Entity, Id> entityIdFunction) {
+        this(null, fillingDao, initCursor, bufferSize, entityIdFunction, MODE_TRIM_LAST);
+    }
+
+    private PageScroller(GetByCursorDAO<Id, Entity> dao, FillingCursorDAO<Id, Entity> fillingDao,
+            Id initCursor, IntSupplier bufferSize, Function<Entity, Id> entityIdFunction,
+            boolean mode) {
         this.dao = dao;
+        this.fillingDao = fillingDao;
         this.initCursor = initCursor;
         this.bufferSize = bufferSize;
         this.entityIdFunction = entityIdFunction;
@@ -42,85 +68,275 @@ class PageScroller<Id, Entity> implements Iterable<List<Entity>> {
         this.maxNumberOfPages = maxNumberOfPages;
     }
 
+    public void setProgress(ScanProgress<? super Id> progress) {
+        this.progress = progress;
+    }
+
+    public void setRecycler(Consumer<? super Entity> recycler) {
+        this.recycler = recycler;
+    }
+
+    /**
+     * 结束游标 (不包括), 数据访问对象实现了 {@link BoundedGetByCursorDAO} 时同时传给数据访问对象
+     */
+    public void setEnd(Id end, Comparator<? super Id> comparator) {
+        this.end = end;
+        this.endComparator = comparator;
+    }
+
+    /**
+     * 遇到第一条满足条件的实体时停止 (不包括这一条)
+     */
+    public void setUntil(Predicate<? super Entity> until) {
+        this.until = until;
+    }
+
+    /**
+     * 只支持 {@link #MODE_TRIM_LAST}: 下一页的起始游标是多读的一条, 批量修改已经遍历过的实体不会影响下一页
+     */
+    public void setWriteBehind(WriteBehindBuffer<?> writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    private List<Entity> getByCursor(Id cursor, int limit) {
+        if (end != null && dao instanceof BoundedGetByCursorDAO) {
+            return ((BoundedGetByCursorDAO<Id, Entity>) dao).getByCursor(cursor, end, limit);
+        }
+        return dao.getByCursor(cursor, limit);
+    }
+
+    /**
+     * @return [from, to) 中第一条越过结束条件的下标, 都没有越过时返回 to
+     */
+    private int bound(List<Entity> page, int from, int to) {
+        if (end != null) {
+            // 页内按游标递增, 二分查找第一条大于等于结束游标的位置
+            int low = from;
+            int high = to;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (endComparator.compare(entityIdFunction.apply(page.get(middle)), end) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            to = low;
+        }
+        if (until != null) {
+            for (int i = from; i < to; i++) {
+                if (until.test(page.get(i))) {
+                    return i;
+                }
+            }
+        }
+        return to;
+    }
+
     @Nonnull
     @Override
     public Iterator<List<Entity>> iterator() {
+        if (progress != null) {
+            progress.restart();
+        }
+        PageCursor<Entity> cursor = mode == MODE_TRIM_FIRST ? new TrimFirstCursor()
+                                                           : new TrimLastCursor(false);
+        return new AbstractIterator<List<Entity>>() {
+
+            @Override
+            protected List<Entity> computeNext() {
+                return cursor.advance() ? cursor.current() : endOfData();
+            }
+        };
+    }
+
+    PageCursor<Entity> cursor() {
+        if (progress != null) {
+            progress.restart();
+        }
         if (mode == MODE_TRIM_FIRST) {
-            return new TrimFirstIterator();
+            return new TrimFirstCursor();
         } else {
-            return new TrimLastIterator();
+            return new TrimLastCursor(fillingDao != null);
         }
     }
 
-    private class TrimFirstIterator extends AbstractIterator<List<Entity>> {
+    private class TrimFirstCursor extends PageCursor<Entity> {
 
-        private List<Entity> previousPage;
         private boolean firstTime = true;
+        private boolean noNext = false;
         private int pageIndex = 0;
+        private int deliveredRows = 0;
 
         @Override
-        protected List<Entity> computeNext() {
+        boolean advance() {
+            if (deliveredRows > 0) {
+                // 调用方已经离开上一页, 下一页从上一页的最后一条开始读取
+                progress.record(entityIdFunction.apply(page.get(to - 1)), deliveredRows);
+                deliveredRows = 0;
+            }
+            if (noNext) {
+                return false;
+            }
             int thisBufferSize = bufferSize.getAsInt();
-            List<Entity> page;
             if (firstTime) {
                 firstTime = false;
                 // 第一次, 正常取
-                page = dao.getByCursor(initCursor, thisBufferSize);
+                page = getByCursor(initCursor, thisBufferSize);
+                from = 0;
+                to = page.size();
             } else {
                 if (pageIndex >= maxNumberOfPages) {
                     // 已经取到限制的页数了
-                    page = emptyList();
-                } else if (previousPage.size() < thisBufferSize) {
+                    noNext = true;
+                    return false;
+                } else if (to - from < thisBufferSize) {
                     // 上页还不满, fail fast
-                    page = emptyList();
+                    noNext = true;
+                    return false;
                 } else {
-                    Id start = entityIdFunction.apply(previousPage.get(previousPage.size() - 1));
-                    page = fetchOnePageExcludeStart(dao, start, thisBufferSize);
+                    Id start = entityIdFunction.apply(page.get(to - 1));
+                    fetchOnePageExcludeStart(start, thisBufferSize);
                 }
             }
-
-            previousPage = page;
             pageIndex++;
-            return page.isEmpty() ? endOfData() : page;
+            int bound = bound(page, from, to);
+            if (bound < to) {
+                // 越过结束条件, 这一页是最后一页
+                to = bound;
+                noNext = true;
+            }
+            if (from >= to) {
+                noNext = true;
+                return false;
+            }
+            if (progress != null) {
+                deliveredRows = to - from;
+            }
+            return true;
         }
 
         /**
          * 由于 dao 实现中, start 是被包含的, 使用上一次 cursor 取的时候希望去除 start, 所以还需要多取一个
          */
-        private List<Entity> fetchOnePageExcludeStart(GetByCursorDAO<Id, Entity> dao, Id start,
-                int limit) {
-            List<Entity> entities = dao.getByCursor(start, limit + 1);
-            return entities.isEmpty() ? entities : entities.subList(1, entities.size());
+        private void fetchOnePageExcludeStart(Id start, int limit) {
+            page = getByCursor(start, limit + 1);
+            from = page.isEmpty() ? 0 : 1;
+            to = page.size();
         }
     }
 
-    private class TrimLastIterator extends AbstractIterator<List<Entity>> {
+    private class TrimLastCursor extends PageCursor<Entity> {
 
+        private final boolean reuseBuffer;
         private int pageIndex = 0;
         private Id cursor = initCursor;
         private boolean noNext = false;
+        private int deliveredRows = 0;
+
+        TrimLastCursor(boolean reuseBuffer) {
+            this.reuseBuffer = reuseBuffer;
+        }
 
         @Override
-        protected List<Entity> computeNext() {
+        boolean reusesPages() {
+            return reuseBuffer;
+        }
+
+        @Override
+        boolean advance() {
+            if (deliveredRows > 0) {
+                // 调用方已经离开上一页, 有下一页时 cursor 已经是下一页的起始游标, 否则是上一页的起始游标
+                progress.record(cursor, deliveredRows);
+                deliveredRows = 0;
+            }
+            if (writeBehind == null) {
+                return nextPage();
+            }
+            if (reuseBuffer) {
+                // 读取下一页会回收上一页的实体, 异步写入可能还在读它们, 先等待写入完成
+                writeBehind.flush();
+            } else {
+                // 调用方已经离开上一页, 异步写入时与下一页的读取同时进行
+                writeBehind.onPageBoundary();
+            }
+            if (nextPage()) {
+                return true;
+            }
+            writeBehind.flush();
+            return false;
+        }
+
+        private boolean nextPage() {
             if (noNext) {
-                return endOfData();
+                recycle();
+                return false;
             }
             pageIndex++;
             if (pageIndex > maxNumberOfPages) {
-                return endOfData();
+                noNext = true;
+                recycle();
+                return false;
             }
             int thisBufferSize = bufferSize.getAsInt();
-            List<Entity> list = dao.getByCursor(cursor, thisBufferSize + 1);
+            List<Entity> list = fetch(thisBufferSize + 1);
             if (list.isEmpty()) {
-                return endOfData();
+                noNext = true;
+                return false;
             }
-            if (list.size() >= thisBufferSize + 1) {
+            page = list;
+            from = 0;
+            // 多读的一条也参与判断, 它越过结束条件时不需要再读下一页
+            int bound = bound(list, 0, list.size());
+            if (bound < list.size()) {
+                noNext = true;
+                to = Math.min(bound, thisBufferSize);
+                if (to == 0) {
+                    // 这一页不会交给调用方, 直接回收
+                    recycle();
+                    return false;
+                }
+            } else if (list.size() >= thisBufferSize + 1) {
                 cursor = entityIdFunction.apply(list.get(thisBufferSize));
-                return list.subList(0, thisBufferSize);
+                to = thisBufferSize;
             } else {
                 noNext = true;
-                return list;
+                to = list.size();
+            }
+            if (progress != null) {
+                deliveredRows = to - from;
+            }
+            return true;
+        }
+
+        private List<Entity> fetch(int limit) {
+            if (fillingDao == null) {
+                return getByCursor(cursor, limit);
+            }
+            List<Entity> buffer;
+            if (reuseBuffer && page != null) {
+                // 调用方已经离开上一页, 上一页的缓冲区和实体可以复用
+                buffer = recycle();
+            } else {
+                buffer = new ArrayList<>(limit);
+            }
+            fillingDao.fillByCursor(cursor, limit, buffer);
+            return buffer;
+        }
+
+        /**
+         * 回收当前页的实体并清空缓冲区, 只在复用缓冲区时生效; 重复调用时缓冲区已经为空
+         */
+        private List<Entity> recycle() {
+            List<Entity> buffer = page;
+            if (!reuseBuffer || buffer == null) {
+                return buffer;
+            }
+            if (recycler != null) {
+                buffer.forEach(recycler);
             }
+            buffer.clear();
+            return buffer;
         }
     }
 }
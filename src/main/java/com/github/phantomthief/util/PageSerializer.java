@@ -0,0 +1,33 @@
+package com.github.phantomthief.util;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * 页序列化器，用于将一页实体写入磁盘以及从磁盘读回
+ *
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public interface PageSerializer<Entity> {
+
+    /**
+     * 将一页实体序列化为字节数组
+     *
+     * @param page 一页实体
+     * @return 序列化后的字节
+     */
+    @Nonnull
+    byte[] serialize(@Nonnull List<Entity> page);
+
+    /**
+     * 从字节缓冲区中反序列化一页实体
+     *
+     * @param buffer 只读的字节缓冲区，内容即为{@link #serialize}返回的字节
+     * @return 反序列化的一页实体
+     */
+    @Nonnull
+    List<Entity> deserialize(@Nonnull ByteBuffer buffer);
+}
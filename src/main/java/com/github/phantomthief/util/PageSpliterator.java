@@ -0,0 +1,103 @@
+package com.github.phantomthief.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * 按页遍历的 {@link Spliterator}.
+ * {@link #forEachRemaining} 逐页按下标直接遍历页内元素, 不经过迭代器;
+ * {@link #trySplit} 把当前页剩余的部分切分出去, 切分出的部分大小是确定的;
+ * 页缓冲区被复用时不切分, 切分出的元素会在下一页读取时被回收和重新填充.
+ * {@link #estimateSize} 按页估计: 当前页剩余的条数, 加上一页的大小作为后续页的估计.
+ *
+ * @author agent
+ */
+final class PageSpliterator<E> implements Spliterator<E> {
+
+    private static final int CHARACTERISTICS = ORDERED | NONNULL | IMMUTABLE;
+
+    private final PageCursor<E> pageCursor;
+    private List<E> page;
+    private int index;
+    private int end;
+    private int pageSize;
+    private boolean exhausted;
+
+    PageSpliterator(PageCursor<E> pageCursor) {
+        this.pageCursor = pageCursor;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        if (index >= end && !nextPage()) {
+            return false;
+        }
+        action.accept(page.get(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+        do {
+            List<E> thisPage = page;
+            int thisEnd = end;
+            for (int i = index; i < thisEnd; i++) {
+                action.accept(thisPage.get(i));
+            }
+            index = thisEnd;
+        } while (nextPage());
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        if (pageCursor.reusesPages()) {
+            return null;
+        }
+        if (index >= end && !nextPage()) {
+            return null;
+        }
+        Object[] prefix = page.subList(index, end).toArray();
+        index = end;
+        return Spliterators.spliterator(prefix, CHARACTERISTICS);
+    }
+
+    /**
+     * 读取第一页之前总数是未知的; 之后不知道是否还有下一页, 按当前页的大小估计还有一页
+     */
+    @Override
+    public long estimateSize() {
+        if (page == null) {
+            return exhausted ? 0 : Long.MAX_VALUE;
+        }
+        return end - index + pageSize;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+    private boolean nextPage() {
+        if (exhausted || !pageCursor.advance()) {
+            exhausted = true;
+            page = null;
+            index = end = 0;
+            return false;
+        }
+        if (pageCursor.page instanceof RandomAccess) {
+            page = pageCursor.page;
+            index = pageCursor.from;
+            end = pageCursor.to;
+        } else {
+            page = new ArrayList<>(pageCursor.current());
+            index = 0;
+            end = page.size();
+        }
+        pageSize = end - index;
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * 流水线迭代器.
+ * 上游元素在调用线程上读取, 转换函数提交到执行器上异步执行, 最多同时有 parallelism 个元素在转换中.
+ * 输出顺序与上游顺序一致.
+ * 迭代器没有关闭的时机, 调用方中途放弃迭代时已经提交的任务不会被取消, 最多 parallelism 个任务在执行器上执行完后被丢弃.
+ *
+ * @author agent
+ */
+final class PipelinedIterator<F, T> implements Iterator<T> {
+
+    private final Iterator<? extends F> upstream;
+    private final Function<? super F, ? extends T> function;
+    private final Executor executor;
+    private final int parallelism;
+    private final Deque<Future<T>> pending = new ArrayDeque<>();
+
+    PipelinedIterator(Iterator<? extends F> upstream, Function<? super F, ? extends T> function,
+            Executor executor, int parallelism) {
+        this.upstream = upstream;
+        this.function = function;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        DefaultExecutors.checkNotNested(executor);
+        fill();
+        Future<T> head = pending.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        return getResult(head);
+    }
+
+    /**
+     * 读取上游并提交转换任务, 直到在转换中的元素数达到上限
+     */
+    private void fill() {
+        while (pending.size() < parallelism && upstream.hasNext()) {
+            F element = upstream.next();
+            FutureTask<T> task = new FutureTask<>(() -> function.apply(element));
+            executor.execute(task);
+            pending.add(task);
+        }
+    }
+
+    static <T> T getResult(Future<T> future) {
+        try {
+            return getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.phantomthief.util;
+
+import static com.github.phantomthief.util.PipelinedIterator.getResult;
+import static com.google.common.util.concurrent.MoreExecutors.newSequentialExecutor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * 预读迭代器.
+ * 在执行器上提前读取上游最多 depth 个元素, 读取任务依次串行执行, 因此上游迭代器不需要是线程安全的.
+ *
+ * @author agent
+ */
+final class PrefetchIterator<T> extends AbstractIterator<T> {
+
+    private static final Object END = new Object();
+
+    private final Iterator<? extends T> upstream;
+    private final Executor executor;
+    private final Executor sequentialExecutor;
+    private final int depth;
+    private final Deque<Future<Object>> pending = new ArrayDeque<>();
+    private boolean ended;
+
+    PrefetchIterator(Iterator<? extends T> upstream, Executor executor, int depth) {
+        this.upstream = upstream;
+        this.executor = executor;
+        this.sequentialExecutor = newSequentialExecutor(executor);
+        this.depth = depth;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected T computeNext() {
+        DefaultExecutors.checkNotNested(executor);
+        fill();
+        Future<Object> head = pending.poll();
+        Object result = head == null ? END : getResult(head);
+        if (result == END) {
+            ended = true;
+            pending.clear();
+            return endOfData();
+        }
+        fill();
+        return (T) result;
+    }
+
+    private void fill() {
+        while (!ended && pending.size() < depth) {
+            FutureTask<Object> task = new FutureTask<>(
+                    () -> upstream.hasNext() ? upstream.next() : END);
+            sequentialExecutor.execute(task);
+            pending.add(task);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.phantomthief.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * 一个游标区间的租约，由{@link RangeLeaseStore#tryAcquire}返回
+ * <p>区间为[start, end)，lastProcessed为上一次检查点记录的最后一条已处理的游标，续扫时从它之后继续</p>
+ *
+ * @param <Id> ID类型泛型
+ * @author agent
+ */
+public final class RangeLease<Id> {
+
+    private final int rangeIndex;
+    private final Id start;
+    private final Id end;
+    private final Id lastProcessed;
+    private final String workerId;
+    private final long token;
+
+    RangeLease(int rangeIndex, Id start, Id end, Id lastProcessed, String workerId, long token) {
+        this.rangeIndex = rangeIndex;
+        this.start = start;
+        this.end = end;
+        this.lastProcessed = lastProcessed;
+        this.workerId = workerId;
+        this.token = token;
+    }
+
+    /**
+     * @return 区间序号，从0开始
+     */
+    public int getRangeIndex() {
+        return rangeIndex;
+    }
+
+    /**
+     * @return 区间起始游标（包括），null表示从头开始
+     */
+    @Nullable
+    public Id getStart() {
+        return start;
+    }
+
+    /**
+     * @return 区间结束游标（不包括），null表示没有上界
+     */
+    @Nullable
+    public Id getEnd() {
+        return end;
+    }
+
+    /**
+     * @return 上一次检查点记录的最后一条已处理的游标，还没有检查点时为null
+     */
+    @Nullable
+    public Id getLastProcessed() {
+        return lastProcessed;
+    }
+
+    /**
+     * @return 持有租约的工作节点
+     */
+    @Nonnull
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * @return 租约令牌，区间每被获取一次递增一次，用于判断租约是否已经被其它节点接管
+     */
+    public long getToken() {
+        return token;
+    }
+
+    @Override
+    public String toString() {
+        return "RangeLease [rangeIndex=" + rangeIndex + ", start=" + start + ", end=" + end
+                + ", lastProcessed=" + lastProcessed + ", workerId=" + workerId + ", token="
+                + token + "]";
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.phantomthief.util;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * 游标区间租约存储，多个工作节点通过它协作遍历同一个游标空间
+ * <p>实现需要保证所有方法在多个节点之间是原子的</p>
+ *
+ * @param <Id> ID类型泛型
+ * @author agent
+ * @see DistributedRangeScanner
+ * @see InMemoryRangeLeaseStore
+ * @see FileRangeLeaseStore
+ */
+public interface RangeLeaseStore<Id> {
+
+    /**
+     * 按切分点初始化区间：[start, p1), [p1, p2), ..., [pn, end)；已经初始化过时忽略
+     *
+     * @param start 起始游标（包括），null表示从头开始
+     * @param splitPoints 递增的切分点
+     * @param end 结束游标（不包括），null表示没有上界
+     */
+    void initialize(@Nullable Id start, @Nonnull List<Id> splitPoints, @Nullable Id end);
+
+    /**
+     * 获取一个未完成且没有被持有（或者租约已经过期）的区间
+     *
+     * @param workerId 工作节点标识
+     * @param leaseMillis 租约时长，单位毫秒
+     * @return 获取到的租约，没有可获取的区间时返回null
+     */
+    @Nullable
+    RangeLease<Id> tryAcquire(@Nonnull String workerId, long leaseMillis);
+
+    /**
+     * 记录检查点并续约
+     *
+     * @param lease 持有的租约
+     * @param lastProcessed 最后一条已处理的游标
+     * @param leaseMillis 续约后的租约时长，单位毫秒
+     * @return 租约已经被其它节点接管时返回false，此时应该停止处理这个区间
+     */
+    boolean checkpoint(@Nonnull RangeLease<Id> lease, @Nonnull Id lastProcessed, long leaseMillis);
+
+    /**
+     * 标记区间已完成
+     *
+     * @param lease 持有的租约
+     * @return 租约已经被其它节点接管时返回false
+     */
+    boolean complete(@Nonnull RangeLease<Id> lease);
+
+    /**
+     * 释放租约，保留检查点，区间可以立即被其它节点获取
+     *
+     * @param lease 持有的租约
+     */
+    void release(@Nonnull RangeLease<Id> lease);
+
+    /**
+     * @return 是否已经初始化并且所有区间都已完成
+     */
+    boolean isCompleted();
+}
@@ -0,0 +1,310 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.OptionalDouble;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+
+/**
+ * 遍历进度
+ * <p>在构造游标迭代器时传入（{@link CursorIterator.GenericBuilder#progress}、{@link CursorIteratorEx.Builder#withProgress}），
+ * 遍历过程中每消费完一页更新一次，可以在其它线程上随时查询恢复遍历的游标、已消费的页数和记录数、滑动窗口内的速率以及预计剩余时间</p>
+ * <p>两种游标迭代器中的含义相同：</p>
+ * <ul>
+ * <li>一页被消费完（迭代越过这一页，或者按页转换时取走了这一页）才计入，部分消费的页不计入</li>
+ * <li>{@link #getCursor()}是恢复遍历的游标：用同样的方式从这个游标重新构造迭代器，不会漏掉还没有消费的记录
+ * （可能重复读取最后消费的一页）；对{@link CursorIteratorEx}是游标提取器对最后消费的一页返回的游标</li>
+ * <li>{@link #getRows()}是已经消费的记录数</li>
+ * <li>每次开始新的迭代（再次调用{@code iterator()}、{@code stream()}等）时重新计数</li>
+ * </ul>
+ * <pre>{@code
+ * ScanProgress<Long> progress = ScanProgress.<Long> newBuilder()
+ *         .range(startId, endId)
+ *         .build();
+ * CursorIterator<Long, User> users = CursorIterator.<Long, User> newGenericBuilder()
+ *         .start(startId)
+ *         .cursorExtractor(User::getId)
+ *         .progress(progress)
+ *         .buildEx(userDAO::getUsers);
+ * // 在其它线程上
+ * logger.info("progress:{}", progress);
+ * }</pre>
+ *
+ * @param <Id> ID类型泛型
+ * @author agent
+ */
+public class ScanProgress<Id> {
+
+    private static final int SAMPLES_PER_WINDOW = 64;
+
+    private final ToDoubleFunction<? super Id> fraction;
+    private final long windowNanos;
+    private final Ticker ticker;
+    private long startNanos;
+
+    private final Deque<Sample> samples = new ArrayDeque<>();
+    private volatile Id cursor;
+    private volatile long pages;
+    private volatile long rows;
+
+    private ScanProgress(Builder<Id> builder) {
+        this.fraction = builder.fraction;
+        this.windowNanos = builder.windowNanos;
+        this.ticker = builder.ticker;
+        restart();
+    }
+
+    /**
+     * 创建遍历进度的构造器
+     *
+     * @param <I> ID泛型类型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <I> Builder<I> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 由遍历线程在开始新的迭代时调用, 清空之前的计数
+     */
+    void restart() {
+        synchronized (samples) {
+            cursor = null;
+            pages = 0;
+            rows = 0;
+            startNanos = ticker.read();
+            samples.clear();
+            samples.add(new Sample(startNanos, 0, 0));
+        }
+    }
+
+    /**
+     * 由遍历线程在每消费完一页后调用
+     *
+     * @param resumeCursor 恢复遍历的游标
+     * @param pageRows 这一页消费的记录数
+     */
+    void record(@Nullable Id resumeCursor, int pageRows) {
+        synchronized (samples) {
+            cursor = resumeCursor;
+            pages++;
+            rows += pageRows;
+            long now = ticker.read();
+            if (now - samples.peekLast().nanos >= windowNanos / SAMPLES_PER_WINDOW) {
+                samples.addLast(new Sample(now, rows, fractionOf(resumeCursor)));
+            }
+            // 保留窗口起点之前最近的一个样本作为速率计算的起点
+            long windowStart = now - windowNanos;
+            while (samples.size() > 1) {
+                Iterator<Sample> iterator = samples.iterator();
+                iterator.next();
+                if (iterator.next().nanos <= windowStart) {
+                    samples.pollFirst();
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 恢复遍历的游标，还没有消费完任何一页时为null
+     */
+    @Nullable
+    public Id getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return 已消费的页数
+     */
+    public long getPages() {
+        return pages;
+    }
+
+    /**
+     * @return 已消费的记录数
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return 从这次迭代开始（还没有开始迭代时从创建）到现在经过的时间
+     */
+    @Nonnull
+    public Duration getElapsed() {
+        synchronized (samples) {
+            return Duration.ofNanos(ticker.read() - startNanos);
+        }
+    }
+
+    /**
+     * @return 滑动窗口内平均每秒消费的记录数
+     */
+    public double getRowsPerSecond() {
+        synchronized (samples) {
+            Sample first = samples.peekFirst();
+            long elapsed = ticker.read() - first.nanos;
+            return elapsed <= 0 ? 0 : (rows - first.rows) * 1_000_000_000D / elapsed;
+        }
+    }
+
+    /**
+     * @return 恢复遍历的游标对应的完成比例，范围为[0, 1]；没有设置比例函数或者还没有消费完任何一页时为空
+     */
+    @Nonnull
+    public OptionalDouble getFraction() {
+        if (fraction == null || cursor == null) {
+            return OptionalDouble.empty();
+        }
+        return OptionalDouble.of(fractionOf(cursor));
+    }
+
+    /**
+     * 根据滑动窗口内完成比例的变化速度估算剩余时间
+     *
+     * @return 预计剩余时间，无法估算时为null
+     */
+    @Nullable
+    public Duration getEstimatedRemaining() {
+        if (fraction == null) {
+            return null;
+        }
+        synchronized (samples) {
+            Sample first = samples.peekFirst();
+            double current = fractionOf(cursor);
+            double progressed = current - first.fraction;
+            long elapsed = ticker.read() - first.nanos;
+            if (progressed <= 0 || elapsed <= 0) {
+                return null;
+            }
+            return Duration.ofNanos((long) ((1 - current) * elapsed / progressed));
+        }
+    }
+
+    private double fractionOf(Id id) {
+        if (fraction == null || id == null) {
+            return 0;
+        }
+        return Math.max(0, Math.min(1, fraction.applyAsDouble(id)));
+    }
+
+    @Override
+    public String toString() {
+        return "ScanProgress [cursor=" + cursor + ", pages=" + pages + ", rows=" + rows
+                + ", rowsPerSecond=" + (long) getRowsPerSecond() + ", fraction="
+                + getFraction() + ", eta=" + getEstimatedRemaining() + "]";
+    }
+
+    private static final class Sample {
+
+        private final long nanos;
+        private final long rows;
+        private final double fraction;
+
+        private Sample(long nanos, long rows, double fraction) {
+            this.nanos = nanos;
+            this.rows = rows;
+            this.fraction = fraction;
+        }
+    }
+
+    /**
+     * 遍历进度构造器
+     *
+     * @param <Id> ID泛型类型
+     */
+    public static final class Builder<Id> {
+
+        private static final long DEFAULT_WINDOW_NANOS = SECONDS.toNanos(30);
+
+        private ToDoubleFunction<? super Id> fraction;
+        private long windowNanos = DEFAULT_WINDOW_NANOS;
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder() {
+        }
+
+        /**
+         * 设置游标到完成比例的映射函数，用于计算完成比例和预计剩余时间
+         *
+         * @param fraction 传入游标，返回[0, 1]之间的完成比例
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id> fraction(@Nonnull ToDoubleFunction<? super Id> fraction) {
+            this.fraction = checkNotNull(fraction);
+            return this;
+        }
+
+        /**
+         * 设置数值游标的起止范围，游标为{@link Number}时按线性比例计算完成比例
+         *
+         * @param start 起始游标
+         * @param end 结束游标
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id> range(long start, long end) {
+            checkArgument(end > start);
+            double total = end - start;
+            return fraction(id -> (((Number) id).longValue() - start) / total);
+        }
+
+        /**
+         * 设置计算速率和剩余时间的滑动窗口大小，默认为30秒
+         *
+         * @param window 窗口大小
+         * @param unit 时间单位
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id> window(long window, @Nonnull TimeUnit unit) {
+            checkArgument(window > 0);
+            this.windowNanos = unit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * 设置计时器，默认使用系统计时器
+         *
+         * @param ticker 计时器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id> ticker(@Nonnull Ticker ticker) {
+            this.ticker = checkNotNull(ticker);
+            return this;
+        }
+
+        /**
+         * 构造遍历进度
+         *
+         * @return 遍历进度对象
+         */
+        @Nonnull
+        public ScanProgress<Id> build() {
+            return new ScanProgress<>(this);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Iterators.peekingIterator;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.PeekingIterator;
+
+/**
+ * 服务端滚动会话缓存
+ * <p>移动端两次“加载更多”请求之间，保留迭代器的活动状态（当前游标、已经读取但还没有返回的实体，以及预读的页），
+ * 下一次请求直接从内存中继续，而不是重新构造游标迭代器读取数据</p>
+ * <pre>{@code
+ * ScrollSessionStore<Integer, Feed> store = ScrollSessionStore.<Integer, Feed> newBuilder()
+ *         .cursorExtractor(Feed::getId)
+ *         .expireAfterAccess(5, MINUTES)
+ *         .maximumSize(100000)
+ *         .build();
+ * // 每次请求
+ * ScrollPage<Integer, Feed> page = store.scroll(sessionToken, cursorFromClient, 20,
+ *         cursor -> CursorIterator.<Integer, Feed> newGenericBuilder()
+ *                 .start(cursor == null ? firstFeedId : cursor)
+ *                 .cursorExtractor(Feed::getId)
+ *                 .buildEx(feedDAO)
+ *                 .prefetch(1));
+ * // 把page.getNextCursor()返回给客户端，作为下一次请求的cursorFromClient，首次请求时为null
+ * }</pre>
+ * <p>下一页的游标取自这一页返回的最后一条，与{@link CursorIterator.GenericBuilder#build}的页首截取模式相同，
+ * 返回一页时不会为了确定下一页的游标而读取下一页</p>
+ * <p>只有客户端传入的游标与会话中记录的游标一致时才会复用会话，客户端重试同一次请求或者会话已经被淘汰时，
+ * 都会从客户端传入的游标重新构造迭代器并跳过游标对应的一条，因此不会跳过或者重复返回数据</p>
+ *
+ * @param <Id> ID类型泛型
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public class ScrollSessionStore<Id, Entity> {
+
+    private final Cache<String, Session> sessions;
+    private final Function<? super Entity, ? extends Id> cursorExtractor;
+
+    private ScrollSessionStore(Builder<Id, Entity> builder) {
+        this.sessions = CacheBuilder.newBuilder()
+                .expireAfterAccess(builder.expireAfterAccessNanos, TimeUnit.NANOSECONDS)
+                .maximumSize(builder.maximumSize)
+                .build();
+        this.cursorExtractor = builder.cursorExtractor;
+    }
+
+    /**
+     * 创建滚动会话缓存的构造器
+     *
+     * @param <I> ID泛型类型
+     * @param <E> 实体对象的泛型类型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <I, E> Builder<I, E> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 读取会话的下一页
+     *
+     * @param token 会话标识
+     * @param cursor 客户端传入的上一页最后一条的游标，不包括；首次请求时为null
+     * @param limit 返回记录数
+     * @param loader 会话不存在或者游标不一致时，根据客户端传入的游标构造从这个游标开始（包括）的迭代器；
+     * 游标为null时从头开始
+     * @return 一页数据
+     */
+    @Nonnull
+    public ScrollPage<Id, Entity> scroll(@Nonnull String token, @Nullable Id cursor, int limit,
+            @Nonnull Function<? super Id, ? extends Iterable<Entity>> loader) {
+        checkNotNull(token);
+        checkArgument(limit > 0);
+        checkNotNull(loader);
+        Session session = sessions.getIfPresent(token);
+        if (session == null) {
+            session = new Session();
+        }
+        synchronized (session) {
+            if (session.iterator == null || !Objects.equals(session.nextCursor, cursor)) {
+                session.iterator = peekingIterator(loader.apply(cursor).iterator());
+                // 跳过上一页已经返回的最后一条
+                if (cursor != null && session.iterator.hasNext()
+                        && Objects.equals(cursorExtractor.apply(session.iterator.peek()), cursor)) {
+                    session.iterator.next();
+                }
+            }
+            List<Entity> list = new ArrayList<>(limit);
+            while (list.size() < limit && session.iterator.hasNext()) {
+                list.add(session.iterator.next());
+            }
+            // 取满一页时不再调用 hasNext, 否则在页边界会同步读取下一页
+            boolean hasMore = list.size() == limit;
+            if (hasMore) {
+                session.nextCursor = cursorExtractor.apply(list.get(limit - 1));
+                sessions.put(token, session);
+            } else {
+                session.iterator = null;
+                session.nextCursor = null;
+                sessions.invalidate(token);
+            }
+            return new ScrollPage<>(list, session.nextCursor, hasMore);
+        }
+    }
+
+    /**
+     * 主动结束会话
+     *
+     * @param token 会话标识
+     */
+    public void invalidate(@Nonnull String token) {
+        sessions.invalidate(token);
+    }
+
+    /**
+     * @return 当前保存的会话数
+     */
+    public long size() {
+        return sessions.size();
+    }
+
+    private final class Session {
+
+        private PeekingIterator<Entity> iterator;
+        private Id nextCursor;
+    }
+
+    /**
+     * 一页滚动结果
+     *
+     * @param <Id> ID类型泛型
+     * @param <Entity> 实体对象泛型
+     */
+    public static final class ScrollPage<Id, Entity> {
+
+        private final List<Entity> list;
+        private final Id nextCursor;
+        private final boolean hasMore;
+
+        private ScrollPage(List<Entity> list, Id nextCursor, boolean hasMore) {
+            this.list = list;
+            this.nextCursor = nextCursor;
+            this.hasMore = hasMore;
+        }
+
+        @Nonnull
+        public List<Entity> getList() {
+            return list;
+        }
+
+        /**
+         * @return 这一页最后一条的游标，作为下一次请求的游标；没有更多数据时为null
+         */
+        @Nullable
+        public Id getNextCursor() {
+            return nextCursor;
+        }
+
+        /**
+         * @return 这一页是否取满；数据总数恰好是整页时，最后一次请求返回空列表
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    /**
+     * 滚动会话缓存构造器
+     *
+     * @param <Id> ID泛型类型
+     * @param <Entity> 实体对象泛型类型
+     */
+    public static final class Builder<Id, Entity> {
+
+        private static final long DEFAULT_MAXIMUM_SIZE = 10000;
+        private static final long DEFAULT_EXPIRE_NANOS = MINUTES.toNanos(5);
+
+        private Function<? super Entity, ? extends Id> cursorExtractor;
+        private long expireAfterAccessNanos = DEFAULT_EXPIRE_NANOS;
+        private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置游标提取函数
+         *
+         * @param function 从实体上提取游标ID对象的函数，与构造游标迭代器时使用的一致
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity>
+        cursorExtractor(@Nonnull Function<? super Entity, ? extends Id> function) {
+            this.cursorExtractor = checkNotNull(function);
+            return this;
+        }
+
+        /**
+         * 设置会话最后一次访问后的过期时间，默认为5分钟
+         *
+         * @param duration 过期时间
+         * @param unit 时间单位
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> expireAfterAccess(long duration, @Nonnull TimeUnit unit) {
+            checkArgument(duration > 0);
+            this.expireAfterAccessNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 设置最多保存的会话数，超出时淘汰最近最少使用的会话，默认为10000
+         *
+         * @param maximumSize 最多保存的会话数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> maximumSize(long maximumSize) {
+            checkArgument(maximumSize > 0);
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * 构造滚动会话缓存
+         *
+         * @return 滚动会话缓存对象
+         */
+        @Nonnull
+        public ScrollSessionStore<Id, Entity> build() {
+            checkNotNull(cursorExtractor, "cursor extractor is null.");
+            return new ScrollSessionStore<>(this);
+        }
+    }
+}
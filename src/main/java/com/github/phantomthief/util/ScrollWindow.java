@@ -0,0 +1,401 @@
+package com.github.phantomthief.util;
+
+import static com.github.phantomthief.util.PipelinedIterator.getResult;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * 双向滚动的页窗口
+ * <p>保存用户当前位置附近最近读取过的若干页，向下滚动时通过{@link GetByCursorDAO}向后读取，
+ * 向上滚动时通过可选的反向数据访问对象向前读取，窗口超出容量时淘汰离当前位置较远一端的页；
+ * 滚动方向反转时直接从窗口中返回，不会重新读取</p>
+ * <pre>{@code
+ * ScrollWindow<Long, Feed> window = ScrollWindow.<Long, Feed> newBuilder()
+ *         .cursorExtractor(Feed::getId)
+ *         .pageSize(20)
+ *         .maxPages(10)
+ *         .reverseDAO(feedDAO::getFeedsBefore)
+ *         .prefetch()
+ *         .build(feedDAO::getFeeds, startId);
+ * List<Feed> down = window.next();
+ * List<Feed> up = window.previous();
+ * }</pre>
+ * <p>没有反向数据访问对象时，从窗口头部淘汰的页只保留起始游标，向上滚动越过窗口时从这个游标重新向后读取这一页；
+ * 起始游标之前的数据无法读取</p>
+ * <p>注意：窗口对象不是线程安全的，一般每个客户端会话持有一个</p>
+ *
+ * @param <Id> ID类型泛型
+ * @param <Entity> 实体对象泛型
+ * @author agent
+ */
+public class ScrollWindow<Id, Entity> {
+
+    private final GetByCursorDAO<Id, Entity> dao;
+    private final GetByCursorDAO<Id, Entity> reverseDAO;
+    private final Function<? super Entity, ? extends Id> cursorExtractor;
+    private final int pageSize;
+    private final int maxPages;
+    private final Executor prefetchExecutor;
+
+    private final Deque<List<Entity>> pages = new ArrayDeque<>();
+    /**
+     * 没有反向数据访问对象时, 从窗口头部淘汰的页的起始游标, 栈顶是离窗口最近的一页
+     */
+    private final Deque<Id> evictedStarts = new ArrayDeque<>();
+    /**
+     * 最近一次返回的页在窗口中的下标, -1 表示还没有返回过
+     */
+    private int position = -1;
+
+    private Id forwardCursor;
+    private boolean forwardEnd;
+    private boolean backwardEnd;
+    private Future<List<Entity>> forwardPrefetch;
+    private Future<List<Entity>> backwardPrefetch;
+
+    private ScrollWindow(Builder<Id, Entity> builder, GetByCursorDAO<Id, Entity> dao,
+            Id start) {
+        this.dao = dao;
+        this.reverseDAO = builder.reverseDAO;
+        this.cursorExtractor = builder.cursorExtractor;
+        this.pageSize = builder.pageSize;
+        this.maxPages = builder.maxPages;
+        this.prefetchExecutor = builder.prefetchExecutor;
+        this.forwardCursor = start;
+        // 起始游标之前没有读过, 只有反向数据访问对象可以读取
+        this.backwardEnd = reverseDAO == null;
+    }
+
+    /**
+     * 创建双向滚动页窗口的构造器
+     *
+     * @param <I> ID泛型类型
+     * @param <E> 实体对象的泛型类型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <I, E> Builder<I, E> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 向下滚动一页
+     *
+     * @return 下一页，已经到达末尾时返回空列表
+     */
+    @Nonnull
+    public List<Entity> next() {
+        if (position + 1 >= pages.size() && !fetchForward()) {
+            return emptyList();
+        }
+        position++;
+        if (position == pages.size() - 1) {
+            prefetchForward();
+        }
+        return current();
+    }
+
+    /**
+     * 向上滚动一页
+     *
+     * @return 上一页，已经到达开头时返回空列表
+     */
+    @Nonnull
+    public List<Entity> previous() {
+        if (position <= 0 && !fetchBackward()) {
+            return emptyList();
+        }
+        position--;
+        if (position == 0) {
+            prefetchBackward();
+        }
+        return current();
+    }
+
+    /**
+     * @return 最近一次返回的页，还没有返回过时返回空列表
+     */
+    @Nonnull
+    public List<Entity> current() {
+        if (position < 0 || position >= pages.size()) {
+            return emptyList();
+        }
+        int index = 0;
+        for (List<Entity> page : pages) {
+            if (index++ == position) {
+                return unmodifiableList(page);
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * @return 窗口中保存的页数
+     */
+    public int size() {
+        return pages.size();
+    }
+
+    private boolean fetchForward() {
+        if (forwardEnd) {
+            return false;
+        }
+        List<Entity> list;
+        if (forwardPrefetch != null) {
+            // 预读失败时异常只抛出一次, 下一次滚动重新读取
+            Future<List<Entity>> prefetched = forwardPrefetch;
+            forwardPrefetch = null;
+            list = getResult(prefetched);
+        } else {
+            list = dao.getByCursor(forwardCursor, pageSize + 1);
+        }
+        if (list.size() > pageSize) {
+            forwardCursor = cursorExtractor.apply(list.get(pageSize));
+            list = new ArrayList<>(list.subList(0, pageSize));
+        } else {
+            forwardEnd = true;
+        }
+        if (list.isEmpty()) {
+            return false;
+        }
+        pages.addLast(list);
+        if (pages.size() > maxPages) {
+            List<Entity> evicted = pages.removeFirst();
+            if (reverseDAO == null) {
+                evictedStarts.push(cursorExtractor.apply(evicted.get(0)));
+            }
+            position--;
+            backwardEnd = false;
+            cancel(backwardPrefetch);
+            backwardPrefetch = null;
+        }
+        return true;
+    }
+
+    private boolean fetchBackward() {
+        if (backwardEnd || pages.isEmpty()) {
+            return false;
+        }
+        List<Entity> page;
+        if (backwardPrefetch != null) {
+            // 预读失败时异常只抛出一次, 下一次滚动重新读取
+            Future<List<Entity>> prefetched = backwardPrefetch;
+            backwardPrefetch = null;
+            page = getResult(prefetched);
+        } else {
+            page = loadBackward(firstCursor(), evictedStarts.peek());
+        }
+        if (reverseDAO == null) {
+            evictedStarts.poll();
+            backwardEnd = evictedStarts.isEmpty();
+        } else if (page.size() < pageSize) {
+            backwardEnd = true;
+        }
+        if (page.isEmpty()) {
+            return false;
+        }
+        pages.addFirst(page);
+        position++;
+        if (pages.size() > maxPages) {
+            List<Entity> evicted = pages.removeLast();
+            // 从淘汰页的第一条开始重新向后读取
+            forwardCursor = cursorExtractor.apply(evicted.get(0));
+            forwardEnd = false;
+            cancel(forwardPrefetch);
+            forwardPrefetch = null;
+        }
+        return true;
+    }
+
+    /**
+     * 读取 before 之前 (不包括) 的一页, 按正序返回; 没有反向数据访问对象时从淘汰页的起始游标 start 向后读取
+     */
+    private List<Entity> loadBackward(Id before, Id start) {
+        List<Entity> page = new ArrayList<>(pageSize);
+        if (reverseDAO != null) {
+            for (Entity entity : reverseDAO.getByCursor(before, pageSize + 1)) {
+                if (page.size() < pageSize
+                        && !Objects.equals(cursorExtractor.apply(entity), before)) {
+                    page.add(entity);
+                }
+            }
+            Collections.reverse(page);
+        } else {
+            for (Entity entity : dao.getByCursor(start, pageSize)) {
+                if (Objects.equals(cursorExtractor.apply(entity), before)) {
+                    break;
+                }
+                page.add(entity);
+            }
+        }
+        return page;
+    }
+
+    private Id firstCursor() {
+        return cursorExtractor.apply(pages.peekFirst().get(0));
+    }
+
+    private void prefetchForward() {
+        if (prefetchExecutor != null && forwardPrefetch == null && !forwardEnd) {
+            Id cursor = forwardCursor;
+            forwardPrefetch = submit(() -> dao.getByCursor(cursor, pageSize + 1));
+        }
+    }
+
+    private void prefetchBackward() {
+        if (prefetchExecutor != null && backwardPrefetch == null && !backwardEnd
+                && !pages.isEmpty()) {
+            Id before = firstCursor();
+            Id start = evictedStarts.peek();
+            backwardPrefetch = submit(() -> loadBackward(before, start));
+        }
+    }
+
+    private Future<List<Entity>> submit(Callable<List<Entity>> loader) {
+        FutureTask<List<Entity>> task = new FutureTask<>(loader);
+        prefetchExecutor.execute(task);
+        return task;
+    }
+
+    private static void cancel(@Nullable Future<?> future) {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 双向滚动页窗口构造器
+     *
+     * @param <Id> ID泛型类型
+     * @param <Entity> 实体对象泛型类型
+     */
+    public static final class Builder<Id, Entity> {
+
+        private static final int DEFAULT_PAGE_SIZE = 30;
+        private static final int DEFAULT_MAX_PAGES = 10;
+
+        private GetByCursorDAO<Id, Entity> reverseDAO;
+        private Function<? super Entity, ? extends Id> cursorExtractor;
+        private int pageSize = DEFAULT_PAGE_SIZE;
+        private int maxPages = DEFAULT_MAX_PAGES;
+        private Executor prefetchExecutor;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置游标提取函数
+         *
+         * @param cursorExtractor 从实体上提取游标ID对象的函数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity>
+        cursorExtractor(@Nonnull Function<? super Entity, ? extends Id> cursorExtractor) {
+            this.cursorExtractor = checkNotNull(cursorExtractor);
+            return this;
+        }
+
+        /**
+         * 设置每页的记录数，默认为30
+         *
+         * @param pageSize 每页的记录数
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> pageSize(int pageSize) {
+            checkArgument(pageSize > 0);
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * 设置窗口中最多保存的页数，默认为10
+         *
+         * @param maxPages 最多保存的页数，大于等于2
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> maxPages(int maxPages) {
+            checkArgument(maxPages > 1);
+            this.maxPages = maxPages;
+            return this;
+        }
+
+        /**
+         * 设置反向数据访问对象
+         *
+         * @param reverseDAO 从指定的游标开始（包括）按游标递减的顺序读取limit条记录
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> reverseDAO(@Nonnull GetByCursorDAO<Id, Entity> reverseDAO) {
+            this.reverseDAO = checkNotNull(reverseDAO);
+            return this;
+        }
+
+        /**
+         * 在默认执行器上按滚动方向预读一页：滚动到窗口的最后一页时预读后一页，滚动到窗口的第一页时预读前一页
+         *
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> prefetch() {
+            return prefetch(DefaultExecutors.shared());
+        }
+
+        /**
+         * 在指定的执行器上按滚动方向预读一页
+         *
+         * @param executor 执行预读的执行器
+         * @return 当前构造器对象
+         * @see #prefetch()
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<Id, Entity> prefetch(@Nonnull Executor executor) {
+            this.prefetchExecutor = checkNotNull(executor);
+            return this;
+        }
+
+        /**
+         * 构造双向滚动页窗口
+         *
+         * @param dao 游标数据访问对象
+         * @param start 起始游标，包括；为null时从头开始
+         * @return 双向滚动页窗口
+         */
+        @SuppressWarnings("unchecked")
+        @Nonnull
+        public ScrollWindow<Id, Entity> build(
+                @Nonnull GetByCursorDAO<? super Id, ? extends Entity> dao, @Nullable Id start) {
+            checkNotNull(dao);
+            checkNotNull(cursorExtractor, "cursorExtractor is null.");
+            return new ScrollWindow<>(this, (GetByCursorDAO<Id, Entity>) dao, start);
+        }
+    }
+}
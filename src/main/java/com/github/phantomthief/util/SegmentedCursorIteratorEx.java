@@ -0,0 +1,449 @@
+package com.github.phantomthief.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.emptyList;
+import static java.util.Spliterator.NONNULL;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * 分段并行的游标迭代器
+ * <p>适用于服务端下发不透明游标、但支持"第i段/共N段"并行遍历的存储（例如分段的SCAN接口）：
+ * 每一段是一个独立的{@link CursorIteratorEx}，最多同时遍历parallelism段，
+ * 哪一段的页先读完就先输出哪一页，输出顺序不确定</p>
+ * <pre>{@code
+ * SegmentedCursorIteratorEx<User, String, ScanResult> users =
+ *         SegmentedCursorIteratorEx.<User, String, ScanResult> newBuilder()
+ *         .withSegments(16)
+ *         .withDataRetriever((segment, total, cursor) ->
+ *                 repository.scan(segment, total, cursor, 100))
+ *         .withCursorExtractor(ScanResult::getNextCursor)
+ *         .withDataExtractor(s -> s.getUsers().iterator())
+ *         .withParallelism(4)
+ *         .withCheckpoint((segment, cursor, finished) ->
+ *                 checkpointStore.save(segment, cursor, finished))
+ *         .build();
+ * }</pre>
+ * <p>每一段的读取和数据提取依次串行地在执行器上进行，迭代越过一页之后在调用线程上记录这一段的检查点；
+ * 从检查点的游标重新开始遍历这一段（{@link Builder#withInitCursor}）不会遗漏记录，
+ * 已经结束的段在重新开始时可以通过{@link Builder#withSegments(int, Collection)}排除</p>
+ *
+ * @param <T> 返回实体的类型泛型
+ * @param <C> 游标类型泛型
+ * @param <R> 列表读取结果对象的泛型
+ * @author agent
+ */
+public class SegmentedCursorIteratorEx<T, C, R> implements Iterable<T> {
+
+    private final int totalSegments;
+    private final List<Integer> segments;
+    private final IntFunction<? extends C> initCursor;
+    private final boolean checkFirstCursor;
+    private final SegmentRetriever<C, R> dataRetriever;
+    private final Function<R, C> cursorExtractor;
+    private final Function<R, Iterator<T>> dataExtractor;
+    private final Predicate<C> endChecker;
+    private final Executor executor;
+    private final int parallelism;
+    private final SegmentCheckpoint<? super C> checkpoint;
+
+    private SegmentedCursorIteratorEx(Builder<T, C, R> builder) {
+        this.totalSegments = builder.totalSegments;
+        this.segments = builder.segments;
+        this.initCursor = builder.initCursor;
+        this.checkFirstCursor = builder.checkFirstCursor;
+        this.dataRetriever = builder.dataRetriever;
+        this.cursorExtractor = builder.cursorExtractor;
+        this.dataExtractor = builder.dataExtractor;
+        this.endChecker = builder.endChecker;
+        this.executor = builder.executor;
+        this.parallelism = builder.parallelism;
+        this.checkpoint = builder.checkpoint;
+    }
+
+    /**
+     * 创建分段游标迭代器构造器
+     *
+     * @param <T> 返回实体的类型泛型
+     * @param <C> 游标类型泛型
+     * @param <R> 列表读取结果对象的泛型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <T, C, R> Builder<T, C, R> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 获取迭代器，每次调用都会重新遍历所有的段
+     *
+     * @return 返回迭代器对象
+     */
+    @Nonnull
+    @Override
+    public Iterator<T> iterator() {
+        return new SegmentedIterator();
+    }
+
+    /**
+     * 获取Stream，输出顺序不确定
+     *
+     * @return 返回一个Stream对象
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), NONNULL),
+                false);
+    }
+
+    /**
+     * 一段的页迭代器, 这一段结束之后再输出一个空的结束页
+     */
+    private Iterator<SegmentPage<T, C>> segmentPages(int segment) {
+        C start = initCursor.apply(segment);
+        CursorIteratorEx<T, C, R> scan = CursorIteratorEx.newBuilder()
+                .withDataRetriever((C cursor) -> dataRetriever.retrieve(segment, totalSegments,
+                        cursor))
+                .withCursorExtractor(cursorExtractor)
+                .withDataExtractor(dataExtractor)
+                .withEndChecker(endChecker)
+                .withInitCursor(start)
+                .firstCursorCheckEnd(checkFirstCursor)
+                .build();
+        Iterator<SegmentPage<T, C>> pages = scan
+                .cursorPages((rows, next) -> new SegmentPage<>(segment, rows, next, false));
+        return new AbstractIterator<SegmentPage<T, C>>() {
+
+            private C last = start;
+            private boolean finished;
+
+            @Override
+            protected SegmentPage<T, C> computeNext() {
+                if (pages.hasNext()) {
+                    SegmentPage<T, C> page = pages.next();
+                    last = page.next;
+                    return page;
+                }
+                if (finished) {
+                    return endOfData();
+                }
+                finished = true;
+                return new SegmentPage<>(segment, emptyList(), last, true);
+            }
+        };
+    }
+
+    /**
+     * 分段数据读取函数
+     *
+     * @param <C> 游标类型泛型
+     * @param <R> 列表读取结果对象的泛型
+     */
+    @FunctionalInterface
+    public interface SegmentRetriever<C, R> {
+
+        /**
+         * 读取一段中的一页
+         *
+         * @param segment 段号，从0开始
+         * @param totalSegments 总段数
+         * @param cursor 当前游标，首次读取时为这一段的起始游标
+         * @return 查询结果对象，返回null时这一段结束
+         */
+        R retrieve(int segment, int totalSegments, C cursor);
+    }
+
+    /**
+     * 分段检查点
+     * <p>每迭代越过一页记录一次未结束的检查点，每一段结束时额外记录一次结束的检查点</p>
+     *
+     * @param <C> 游标类型泛型
+     */
+    @FunctionalInterface
+    public interface SegmentCheckpoint<C> {
+
+        /**
+         * 迭代越过某一段的一页之后在调用线程上执行
+         *
+         * @param segment 段号
+         * @param cursor 读取这一页之后的下一个游标，从这个游标重新开始不会遗漏记录
+         * @param finished 这一段是否已经遍历结束，每一段只会出现一次
+         */
+        void checkpoint(int segment, @Nullable C cursor, boolean finished);
+    }
+
+    /**
+     * 一段中的一页, 在这一段的串行执行器上读取并提取
+     */
+    private static final class SegmentPage<T, C> {
+
+        private final int segment;
+        private final List<T> rows;
+        private final C next;
+        private final boolean finished;
+
+        private SegmentPage(int segment, List<T> rows, C next, boolean finished) {
+            this.segment = segment;
+            this.rows = rows;
+            this.next = next;
+            this.finished = finished;
+        }
+    }
+
+    private final class SegmentedIterator implements Iterator<T> {
+
+        private final Iterator<SegmentPage<T, C>> pages = new FlatMapScanIterator<>(
+                segments.iterator(), SegmentedCursorIteratorEx.this::segmentPages, executor,
+                parallelism, false, null);
+        private SegmentPage<T, C> current;
+        private Iterator<T> currentIterator;
+
+        @Override
+        public boolean hasNext() {
+            while (currentIterator == null || !currentIterator.hasNext()) {
+                if (current != null) {
+                    record(current);
+                    current = null;
+                }
+                if (!pages.hasNext()) {
+                    return false;
+                }
+                current = pages.next();
+                currentIterator = current.rows.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentIterator.next();
+        }
+
+        private void record(SegmentPage<T, C> page) {
+            if (checkpoint != null) {
+                checkpoint.checkpoint(page.segment, page.next, page.finished);
+            }
+        }
+    }
+
+    /**
+     * 分段游标迭代器构造器
+     *
+     * @param <T> 返回实体的类型泛型
+     * @param <C> 游标类型泛型
+     * @param <R> 列表读取结果对象的泛型
+     */
+    public static final class Builder<T, C, R> {
+
+        private int totalSegments;
+        private List<Integer> segments;
+        private IntFunction<? extends C> initCursor = segment -> null;
+        private boolean checkFirstCursor;
+        private SegmentRetriever<C, R> dataRetriever;
+        private Function<R, C> cursorExtractor;
+        private Function<R, Iterator<T>> dataExtractor;
+        private Predicate<C> endChecker = Objects::isNull;
+        private Executor executor = DefaultExecutors.nested();
+        private int parallelism = 1;
+        private SegmentCheckpoint<? super C> checkpoint;
+
+        private Builder() {
+        }
+
+        /**
+         * 遍历全部的段
+         *
+         * @param totalSegments 总段数，大于等于1
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withSegments(int totalSegments) {
+            checkArgument(totalSegments > 0);
+            return withSegments(totalSegments,
+                    IntStream.range(0, totalSegments).boxed().collect(toList()));
+        }
+
+        /**
+         * 只遍历指定的段，例如从检查点恢复时排除已经结束的段
+         *
+         * @param totalSegments 总段数，大于等于1
+         * @param segments 需要遍历的段号，范围为[0, totalSegments)
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withSegments(int totalSegments,
+                @Nonnull Collection<Integer> segments) {
+            checkArgument(totalSegments > 0);
+            checkNotNull(segments);
+            for (Integer segment : segments) {
+                checkArgument(segment >= 0 && segment < totalSegments, "invalid segment:%s",
+                        segment);
+            }
+            this.totalSegments = totalSegments;
+            this.segments = new ArrayList<>(segments);
+            return this;
+        }
+
+        /**
+         * 设置每一段的起始游标，默认为null
+         *
+         * @param initCursor 传入段号，返回这一段的起始游标（例如上次记录的检查点）
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withInitCursor(@Nonnull IntFunction<? extends C> initCursor) {
+            this.initCursor = checkNotNull(initCursor);
+            return this;
+        }
+
+        /**
+         * 设置是否对每一段首个传入的游标进行终末检查
+         *
+         * @param check 是否检查，默认不检查
+         * @return 当前构造器对象
+         * @see CursorIteratorEx.Builder#firstCursorCheckEnd
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> firstCursorCheckEnd(boolean check) {
+            this.checkFirstCursor = check;
+            return this;
+        }
+
+        /**
+         * 分段数据读取函数
+         *
+         * @param dataRetriever 传入段号、总段数和当前游标，返回查询结果对象
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withDataRetriever(@Nonnull SegmentRetriever<C, R> dataRetriever) {
+            this.dataRetriever = checkNotNull(dataRetriever);
+            return this;
+        }
+
+        /**
+         * 获取下一条游标函数
+         *
+         * @param cursorExtractor 传入当前获得的查询结果对象，返回这一段的下一个游标
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withCursorExtractor(@Nonnull Function<R, C> cursorExtractor) {
+            this.cursorExtractor = checkNotNull(cursorExtractor);
+            return this;
+        }
+
+        /**
+         * 数据提取器函数，在读取这一页的执行器线程上执行
+         *
+         * @param dataExtractor 传入当前获得的查询结果对象，返回结果实体集合的迭代器对象
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R>
+        withDataExtractor(@Nonnull Function<R, Iterator<T>> dataExtractor) {
+            this.dataExtractor = checkNotNull(dataExtractor);
+            return this;
+        }
+
+        /**
+         * 设置游标终末检查器，默认根据游标是否为null来进行判断
+         *
+         * @param endChecker 传入当前的游标值，这一段已经结束时返回true
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withEndChecker(@Nonnull Predicate<C> endChecker) {
+            this.endChecker = checkNotNull(endChecker);
+            return this;
+        }
+
+        /**
+         * 设置在默认执行器上最多同时遍历的段数，默认为1
+         * <p>各段在单独的默认执行器上读取，数据读取函数中可以使用默认执行器上的预读或者按页转换</p>
+         *
+         * @param parallelism 最多同时遍历的段数，大于等于1
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withParallelism(int parallelism) {
+            return withParallelism(DefaultExecutors.nested(), parallelism);
+        }
+
+        /**
+         * 设置在指定的执行器上最多同时遍历的段数
+         *
+         * @param executor 执行读取和数据提取的执行器，数据读取函数阻塞等待的任务不能提交到同一个有界的执行器上
+         * @param parallelism 最多同时遍历的段数，大于等于1
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withParallelism(@Nonnull Executor executor, int parallelism) {
+            checkArgument(parallelism > 0);
+            this.executor = checkNotNull(executor);
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * 设置分段检查点
+         *
+         * @param checkpoint 迭代越过某一段的一页之后在调用线程上执行
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<T, C, R> withCheckpoint(@Nonnull SegmentCheckpoint<? super C> checkpoint) {
+            this.checkpoint = checkNotNull(checkpoint);
+            return this;
+        }
+
+        /**
+         * 构造分段游标迭代器
+         *
+         * @return 分段游标迭代器对象
+         */
+        @Nonnull
+        public SegmentedCursorIteratorEx<T, C, R> build() {
+            checkNotNull(segments, "segments is null.");
+            checkNotNull(dataRetriever, "data retriever is null.");
+            checkNotNull(cursorExtractor, "cursor extractor is null.");
+            checkNotNull(dataExtractor, "data extractor is null.");
+            return new SegmentedCursorIteratorEx<>(this);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.phantomthief.util;
+
+import static com.github.phantomthief.util.PipelinedIterator.getResult;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+
+/**
+ * 边遍历边修改时的写缓冲
+ * <p>遍历过程中对每条实体的删除、更新先放入缓冲，在游标迭代器的页边界（离开一页、读取下一页之前）
+ * 合并成一次批量调用，避免每条实体一次数据库往返：</p>
+ * <pre>{@code
+ * WriteBehindBuffer<Long> deletes = WriteBehindBuffer.<Long> newBuilder()
+ *         .flusher(userDAO::deleteUsers)
+ *         .async()
+ *         .build();
+ * CursorIterator<Long, User> users = CursorIterator.<Long, User> newGenericBuilder()
+ *         .start(0L)
+ *         .cursorExtractor(User::getId)
+ *         .bufferSize(100)
+ *         .writeBehind(deletes)
+ *         .buildEx(userDAO::getUsers);
+ * for (User user : users) {
+ *     if (user.isExpired()) {
+ *         deletes.add(user.getId());
+ *     }
+ * }
+ * }</pre>
+ * <p>只能用于{@link CursorIterator.GenericBuilder#buildEx}构造的游标迭代器：下一页的起始游标是上一次多读的一条，
+ * 还没有被遍历到，所以批量修改已经遍历过的实体不会使下一页跳过或者重复记录；
+ * 异步写入时，第N页的批量写入与第N+1页的读取同时进行，同一时刻最多有一次批量写入在进行中，写入顺序与页顺序一致；
+ * 用于{@link CursorIterator.GenericBuilder#buildReusing}时，读取下一页会回收上一页的实体，
+ * 所以异步写入在页边界等待完成后再读取下一页，不再与读取同时进行</p>
+ * <p>遍历到末尾时会写入剩余的修改并等待完成；提前结束遍历（break、{@link java.util.stream.Stream#limit}）
+ * 或者按页转换（{@link CursorIterator#prefetch}等）时需要调用{@link #flush()}或者{@link #close()}</p>
+ *
+ * @param <M> 修改对象的泛型，例如需要删除的ID或者需要更新的实体
+ * @author agent
+ */
+public class WriteBehindBuffer<M> implements AutoCloseable {
+
+    private final Consumer<? super List<M>> flusher;
+    private final Executor executor;
+
+    /**
+     * 页边界可能在预读线程上, 与调用方的 flush 互斥
+     */
+    private final Object flushLock = new Object();
+    private List<M> pending = new ArrayList<>();
+    private Future<?> inFlight;
+
+    private WriteBehindBuffer(Builder<M> builder) {
+        this.flusher = builder.flusher;
+        this.executor = builder.executor;
+    }
+
+    /**
+     * 创建写缓冲的构造器
+     *
+     * @param <M> 修改对象的泛型
+     * @return 构造器对象
+     */
+    @CheckReturnValue
+    @Nonnull
+    public static <M> Builder<M> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 放入一条修改，在下一个页边界写入
+     *
+     * @param mutation 修改对象
+     */
+    public void add(@Nonnull M mutation) {
+        checkNotNull(mutation);
+        synchronized (this) {
+            pending.add(mutation);
+        }
+    }
+
+    /**
+     * 写入所有缓冲中的修改，并等待所有的批量写入完成
+     * <p>异步写入失败时，异常在这里或者下一个页边界抛出</p>
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            onPageBoundary();
+            awaitInFlight();
+        }
+    }
+
+    /**
+     * 同{@link #flush()}
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * 页边界, 由游标迭代器在读取下一页之前调用.
+     * 异步写入时先等待上一次批量写入完成, 保证写入顺序与页顺序一致
+     */
+    void onPageBoundary() {
+        synchronized (flushLock) {
+            List<M> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            if (executor == null) {
+                flusher.accept(batch);
+                return;
+            }
+            awaitInFlight();
+            FutureTask<Void> task = new FutureTask<>(() -> flusher.accept(batch), null);
+            inFlight = task;
+            executor.execute(task);
+        }
+    }
+
+    private void awaitInFlight() {
+        Future<?> previous = inFlight;
+        if (previous != null) {
+            inFlight = null;
+            getResult(previous);
+        }
+    }
+
+    /**
+     * 写缓冲构造器
+     *
+     * @param <M> 修改对象的泛型
+     */
+    public static final class Builder<M> {
+
+        private Consumer<? super List<M>> flusher;
+        private Executor executor;
+
+        private Builder() {
+        }
+
+        /**
+         * 设置批量写入函数
+         *
+         * @param flusher 传入一页中放入的所有修改（按放入的顺序），执行一次批量写入
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<M> flusher(@Nonnull Consumer<? super List<M>> flusher) {
+            this.flusher = checkNotNull(flusher);
+            return this;
+        }
+
+        /**
+         * 在默认执行器上异步写入，批量写入与下一页的读取同时进行
+         *
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<M> async() {
+            return async(DefaultExecutors.shared());
+        }
+
+        /**
+         * 在指定的执行器上异步写入，批量写入与下一页的读取同时进行
+         *
+         * @param executor 执行批量写入的执行器
+         * @return 当前构造器对象
+         */
+        @CheckReturnValue
+        @Nonnull
+        public Builder<M> async(@Nonnull Executor executor) {
+            this.executor = checkNotNull(executor);
+            return this;
+        }
+
+        /**
+         * 构造写缓冲
+         *
+         * @return 写缓冲对象
+         */
+        @Nonnull
+        public WriteBehindBuffer<M> build() {
+            checkNotNull(flusher, "flusher is null.");
+            return new WriteBehindBuffer<>(this);
+        }
+    }
+}
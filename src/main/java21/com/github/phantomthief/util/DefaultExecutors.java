@@ -0,0 +1,54 @@
+package com.github.phantomthief.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 未指定执行器时使用的默认执行器.
+ * JDK 21 及以上的实现: 每个任务一个虚拟线程, 阻塞的数据访问不会占用平台线程, 也不需要决定线程池大小.
+ * 线程数不受限制, 嵌套的遍历阻塞等待同一个执行器的任务也不会死锁.
+ *
+ * @author agent
+ */
+final class DefaultExecutors {
+
+    private DefaultExecutors() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return 所有游标迭代器共享的默认执行器
+     */
+    static ExecutorService shared() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * @return 执行内层遍历、分段遍历的默认执行器, 与 {@link #shared()} 相同
+     */
+    static ExecutorService nested() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * 创建一个新的执行器, 用于需要独立生命周期的组件
+     *
+     * @param nameFormat 线程名格式, 例如 "cursor-iterator-%d"
+     */
+    static ExecutorService newExecutor(String nameFormat) {
+        String prefix = nameFormat.replace("%d", "");
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+    }
+
+    /**
+     * 虚拟线程执行器没有线程数上限, 嵌套使用不会死锁
+     */
+    static void checkNotNested(Executor executor) {
+    }
+
+    private static final class Holder {
+
+        private static final ExecutorService SHARED = newExecutor("cursor-iterator-%d");
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.phantomthieft.test;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.util.BatchingCursorDAO;
+import com.github.phantomthief.util.CursorIterator;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+/**
+ * @author agent
+ */
+class BatchingCursorDAOTest {
+
+    @Test
+    void testBatching() throws Exception {
+        UserDAO userDAO = new UserDAO();
+        AtomicInteger batchCount = new AtomicInteger();
+        AtomicInteger requestCount = new AtomicInteger();
+        BatchingCursorDAO<Integer, User> batchingDAO = BatchingCursorDAO
+                .<Integer, User> newBuilder()
+                .maxBatchSize(8)
+                .maxDelay(5, MILLISECONDS)
+                .build(requests -> {
+                    batchCount.incrementAndGet();
+                    requestCount.addAndGet(requests.size());
+                    return requests.stream()
+                            .map(r -> userDAO.getUsersAscById(r.getCursor(), r.getLimit()))
+                            .collect(toList());
+                });
+        int sessions = 16;
+        ExecutorService executor = newFixedThreadPool(sessions);
+        try {
+            List<Future<List<Integer>>> futures = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                int start = i * 50;
+                futures.add(executor.submit(() -> CursorIterator.<Integer, User> newGenericBuilder()
+                        .start(start)
+                        .cursorExtractor(User::getId)
+                        .bufferSize(10)
+                        .buildEx(batchingDAO)
+                        .stream()
+                        .limit(40)
+                        .map(User::getId)
+                        .collect(toList())));
+            }
+            for (int i = 0; i < sessions; i++) {
+                List<Integer> ids = futures.get(i).get();
+                assertEquals(40, ids.size());
+                for (int j = 0; j < ids.size(); j++) {
+                    assertEquals(i * 50 + j, ids.get(j).intValue());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(batchCount.get() < requestCount.get());
+    }
+
+    @Test
+    void testError() {
+        BatchingCursorDAO<Integer, User> batchingDAO = BatchingCursorDAO
+                .<Integer, User> newBuilder()
+                .build(requests -> {
+                    throw new IllegalArgumentException("failed");
+                });
+        assertThrows(IllegalArgumentException.class, () -> batchingDAO.getByCursor(1, 10));
+    }
+
+    @Test
+    void testTimeout() {
+        UserDAO userDAO = new UserDAO();
+        BatchingCursorDAO<Integer, User> batchingDAO = BatchingCursorDAO
+                .<Integer, User> newBuilder()
+                .maxBatchSize(8)
+                .timeout(50, MILLISECONDS)
+                // 执行器没有空闲线程, 批量读取永远排不上队
+                .executor(command -> { })
+                .build(requests -> requests.stream()
+                        .map(r -> userDAO.getUsersAscById(r.getCursor(), r.getLimit()))
+                        .collect(toList()));
+        assertThrows(UncheckedTimeoutException.class, () -> batchingDAO.getByCursor(1, 10));
+    }
+}
@@ -1,15 +1,29 @@
 package com.github.phantomthieft.test;
 
 import static com.github.phantomthief.util.CursorIteratorEx.newBuilder;
+import static java.lang.Thread.currentThread;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 
 import com.github.phantomthief.util.CursorIteratorEx;
+import com.github.phantomthief.util.ScanProgress;
 import com.github.phantomthieft.test.UserDAO.ScanResult;
 
 /**
@@ -37,4 +51,136 @@ class CursorIteratorExTest {
                 .collect(toList());
         collect.forEach(u -> logger.info("user:{}", u));
     }
+
+    @Test
+    void testMapPages() {
+        UserDAO userDAO = new UserDAO();
+        int countPerFetch = 10;
+        ExecutorService executor = newFixedThreadPool(2);
+        try {
+            CursorIteratorEx<User, Integer, ScanResult> users = newBuilder()
+                    .withDataRetriever((Integer cursor) -> userDAO.scan(cursor, countPerFetch))
+                    .withCursorExtractor(ScanResult::getNextCursor)
+                    .withDataExtractor((ScanResult s) -> s.getUsers().iterator())
+                    .withInitCursor(0)
+                    .build();
+            CursorIteratorEx<Integer, Integer, ScanResult> ids = users
+                    .mapPages(page -> page.stream()
+                            .filter(user -> user.getId() >= 500)
+                            .map(User::getId)
+                            .collect(toList()), executor, 2);
+            List<Integer> collect = ids.stream().collect(toList());
+            assertEquals(438, collect.size());
+            for (int i = 0; i < collect.size(); i++) {
+                assertEquals(500 + i, collect.get(i).intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testEmptyPageEndsScan() {
+        // 读到末尾后返回空页, 游标不为空也不再前进
+        AtomicInteger calls = new AtomicInteger();
+        CursorIteratorEx<Integer, Integer, List<Integer>> ids = newBuilder()
+                .withDataRetriever((Integer cursor) -> {
+                    calls.incrementAndGet();
+                    return range(cursor, Math.min(cursor + 10, 30)).boxed().collect(toList());
+                })
+                .withCursorExtractor(
+                        (List<Integer> page) -> page.isEmpty() ? 30 : page.get(page.size() - 1) + 1)
+                .withDataExtractor((List<Integer> page) -> page.iterator())
+                .withInitCursor(0)
+                .build();
+        List<Integer> collect = new ArrayList<>();
+        ids.forEach(collect::add);
+        assertEquals(range(0, 30).boxed().collect(toList()), collect);
+        assertEquals(4, calls.get());
+
+        calls.set(0);
+        assertEquals(range(0, 30).boxed().collect(toList()), ids.stream().collect(toList()));
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void testStream() {
+        UserDAO userDAO = new UserDAO();
+        CursorIteratorEx<User, Integer, ScanResult> users = newBuilder()
+                .withDataRetriever((Integer cursor) -> userDAO.scan(cursor, 10))
+                .withCursorExtractor(ScanResult::getNextCursor)
+                .withDataExtractor((ScanResult s) -> s.getUsers().iterator())
+                .withInitCursor(0)
+                .build();
+        Spliterator<User> spliterator = users.spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED));
+        assertEquals(Long.MAX_VALUE, spliterator.estimateSize());
+        for (int i = 0; i < 15; i++) {
+            assertTrue(spliterator.tryAdvance(user -> { }));
+        }
+        // 按上一页的大小估计: 第二页还剩5条, 再估计一页
+        assertEquals(15, spliterator.estimateSize());
+        Spliterator<User> prefix = spliterator.trySplit();
+        assertEquals(5, prefix.estimateSize());
+        assertEquals(10, spliterator.estimateSize());
+        spliterator.forEachRemaining(user -> { });
+        assertEquals(0, spliterator.estimateSize());
+        List<Integer> ids = users.stream().map(User::getId).collect(toList());
+        assertEquals(range(0, 938).boxed().collect(toList()), ids);
+        assertEquals(ids, users.stream().parallel().map(User::getId).collect(toList()));
+        int i = 0;
+        for (User user : users) {
+            assertEquals(i++, user.getId());
+        }
+        assertEquals(938, i);
+    }
+
+    @Test
+    void testProgress() {
+        UserDAO userDAO = new UserDAO();
+        ScanProgress<Integer> progress = ScanProgress.<Integer> newBuilder()
+                .range(0, 938)
+                .build();
+        CursorIteratorEx<User, Integer, ScanResult> users = newBuilder()
+                .withDataRetriever((Integer cursor) -> userDAO.scan(cursor, 10))
+                .withCursorExtractor(ScanResult::getNextCursor)
+                .withDataExtractor((ScanResult s) -> s.getUsers().iterator())
+                .withInitCursor(0)
+                .withProgress(progress)
+                .build();
+        assertEquals(500, users.stream().limit(500).count());
+        // 一页在迭代越过这一页之后才计入, 第50页还没有越过, 从490恢复不会漏掉它
+        assertEquals(490, progress.getCursor().intValue());
+        assertEquals(49, progress.getPages());
+        assertEquals(490, progress.getRows());
+        // 每次迭代重新计数
+        assertEquals(938, users.stream().count());
+        assertEquals(94, progress.getPages());
+        assertEquals(938, progress.getRows());
+        assertNull(progress.getCursor());
+    }
+
+    @Test
+    void testDataExtractExecutor() {
+        UserDAO userDAO = new UserDAO();
+        Set<String> extractThreads = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = newFixedThreadPool(3);
+        try {
+            CursorIteratorEx<User, Integer, ScanResult> users = newBuilder()
+                    .withDataRetriever((Integer cursor) -> userDAO.scan(cursor, 10))
+                    .withCursorExtractor(ScanResult::getNextCursor)
+                    .withDataExtractor((ScanResult s) -> {
+                        extractThreads.add(currentThread().getName());
+                        return s.getUsers().iterator();
+                    })
+                    .withInitCursor(0)
+                    .withDataExtractExecutor(executor, 2)
+                    .build();
+            List<Integer> ids = users.stream().map(User::getId).collect(toList());
+            assertEquals(range(0, 938).boxed().collect(toList()), ids);
+            assertFalse(extractThreads.contains(currentThread().getName()));
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
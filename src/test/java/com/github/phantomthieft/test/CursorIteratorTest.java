@@ -1,19 +1,56 @@
 package com.github.phantomthieft.test;
 
 import static com.github.phantomthief.util.CursorIterator.newBuilder;
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 
+import com.github.phantomthief.util.BoundedGetByCursorDAO;
 import com.github.phantomthief.util.CursorIterator;
+import com.github.phantomthief.util.FillingCursorDAO;
+import com.github.phantomthief.util.MemoizedCursorIterator;
+import com.github.phantomthief.util.PageSerializer;
+import com.github.phantomthief.util.ScanProgress;
+import com.github.phantomthief.util.WriteBehindBuffer;
+import com.google.common.base.Ticker;
 
 /**
  * @author w.vela
@@ -211,4 +248,556 @@ class CursorIteratorTest {
             assertEquals(new User(i), users.get(i - 1));
         }
     }
+
+    @Test
+    void testNullDao() {
+        NullPointerException e = assertThrows(NullPointerException.class, () -> CursorIterator
+                .<Integer, User> newGenericBuilder()
+                .cursorExtractor(User::getId)
+                .buildEx(null));
+        assertEquals("dao is null.", e.getMessage());
+    }
+
+    @Test
+    void testWriteBehind() {
+        testWriteBehind(null);
+        ExecutorService executor = newFixedThreadPool(1);
+        try {
+            testWriteBehind(executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertThrows(IllegalStateException.class, () -> CursorIterator
+                .<Integer, User> newGenericBuilder()
+                .cursorExtractor(User::getId)
+                .writeBehind(WriteBehindBuffer.newBuilder().flusher(list -> { }).build())
+                .build(new MutableDAO(10)::getByCursor));
+    }
+
+    private void testWriteBehind(ExecutorService executor) {
+        int allSize = 1005;
+        MutableDAO dao = new MutableDAO(allSize);
+        List<Integer> batchSizes = synchronizedList(new ArrayList<>());
+        WriteBehindBuffer.Builder<Integer> builder = WriteBehindBuffer.<Integer> newBuilder()
+                .flusher(ids -> {
+                    batchSizes.add(ids.size());
+                    dao.deleteUsers(ids);
+                });
+        WriteBehindBuffer<Integer> deletes = executor == null ? builder.build()
+                                                              : builder.async(executor).build();
+        CursorIterator<Integer, User> cursor = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .writeBehind(deletes)
+                .buildEx(dao::getByCursor);
+        int i = 0;
+        for (User user : cursor) {
+            assertEquals(++i, user.getId());
+            deletes.add(user.getId());
+        }
+        assertEquals(allSize, i);
+        // 每页一次批量删除, 遍历结束时已经全部写入
+        assertEquals(101, batchSizes.size());
+        assertEquals(5, batchSizes.get(100).intValue());
+        assertEquals(0, dao.size());
+    }
+
+    @Test
+    void testWriteBehindReusing() {
+        Deque<int[]> pool = new ArrayDeque<>();
+        FillingCursorDAO<Integer, int[]> dao = (cursor, limit, buffer) -> {
+            for (int id = cursor == null ? 0 : cursor; id < 100 && buffer.size() < limit; id++) {
+                int[] entity = pool.poll();
+                entity = entity == null ? new int[1] : entity;
+                entity[0] = id;
+                buffer.add(entity);
+            }
+        };
+        List<Integer> written = synchronizedList(new ArrayList<>());
+        ExecutorService executor = newFixedThreadPool(1);
+        try {
+            // 缓冲的是实体本身, 批量写入时才读取它们的ID
+            WriteBehindBuffer<int[]> updates = WriteBehindBuffer.<int[]> newBuilder()
+                    .flusher(entities -> {
+                        sleepUninterruptibly(5, MILLISECONDS);
+                        entities.forEach(entity -> written.add(entity[0]));
+                    })
+                    .async(executor)
+                    .build();
+            CursorIterator<Integer, int[]> iterator = CursorIterator
+                    .<Integer, int[]> newGenericBuilder()
+                    .cursorExtractor(entity -> entity[0])
+                    .bufferSize(10)
+                    .recycler(pool::push)
+                    .writeBehind(updates)
+                    .buildReusing(dao);
+            for (int[] entity : iterator) {
+                updates.add(entity);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // 异步写入完成之前上一页的实体不会被回收
+        assertEquals(range(0, 100).boxed().collect(toList()), written);
+    }
+
+    @Test
+    void testMapPages() {
+        UserDAO userDAO = new UserDAO();
+        List<Integer> pageSizes = new ArrayList<>();
+        CursorIterator<Integer, String> names = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(100)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx(userDAO::getUsersAscById)
+                .mapPages(page -> {
+                    pageSizes.add(page.size());
+                    return page.stream()
+                            .filter(user -> user.getId() % 2 == 0)
+                            .map(user -> "user" + user.getId())
+                            .collect(toList());
+                });
+        List<String> result = names.stream().collect(toList());
+        assertEquals(419, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals("user" + (100 + i * 2), result.get(i));
+        }
+        assertEquals(84, pageSizes.size());
+    }
+
+    @Test
+    void testMapPagesAsync() {
+        UserDAO userDAO = new UserDAO();
+        ExecutorService executor = newFixedThreadPool(4);
+        try {
+            CursorIterator<Integer, Integer> ids = CursorIterator.<Integer, User> newGenericBuilder()
+                    .start(0)
+                    .cursorExtractor(User::getId)
+                    .bufferSize(7)
+                    .buildEx(userDAO::getUsersAscById)
+                    .mapPages(page -> {
+                        sleepUninterruptibly(ThreadLocalRandom.current().nextInt(3), MILLISECONDS);
+                        return page.stream().map(User::getId).collect(toList());
+                    }, executor, 3);
+            int i = 0;
+            for (Integer id : ids) {
+                assertEquals(i++, id.intValue());
+            }
+            assertEquals(938, i);
+            assertEquals(0, ids.mapPages(page -> emptyList()).stream().count());
+            assertEquals(range(0, 938).sum(), ids.mapPages(page -> page, 2).stream()
+                    .mapToInt(Integer::intValue).sum());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testMemoize() {
+        UserDAO userDAO = new UserDAO();
+        int[] daoCount = {0};
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(100)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx((Integer startId, int limit) -> {
+                    daoCount[0]++;
+                    return userDAO.getUsersAscById(startId, limit);
+                })
+                .memoize();
+        assertEquals(50, users.stream().limit(50).count());
+        int partialCount = daoCount[0];
+        iterateOnce(users);
+        int fullCount = daoCount[0];
+        assertTrue(fullCount > partialCount);
+        iterateOnce(users);
+        assertEquals(fullCount, daoCount[0]);
+    }
+
+    @Test
+    void testMemoizeSpill() {
+        UserDAO userDAO = new UserDAO();
+        int[] daoCount = {0};
+        PageSerializer<User> serializer = new PageSerializer<User>() {
+
+            @Override
+            public byte[] serialize(List<User> page) {
+                ByteBuffer buffer = ByteBuffer.allocate(page.size() * 4);
+                page.forEach(user -> buffer.putInt(user.getId()));
+                return buffer.array();
+            }
+
+            @Override
+            public List<User> deserialize(ByteBuffer buffer) {
+                List<User> page = new ArrayList<>();
+                while (buffer.hasRemaining()) {
+                    page.add(new User(buffer.getInt()));
+                }
+                return page;
+            }
+        };
+        MemoizedCursorIterator<Integer, User> users = CursorIterator
+                .<Integer, User> newGenericBuilder()
+                .start(100)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx((Integer startId, int limit) -> {
+                    daoCount[0]++;
+                    return userDAO.getUsersAscById(startId, limit);
+                })
+                .memoize(100, serializer);
+        try (MemoizedCursorIterator<Integer, User> closing = users) {
+            iterateOnce(closing);
+            int count = daoCount[0];
+            iterateOnce(closing);
+            iterateOnce(closing);
+            assertEquals(count, daoCount[0]);
+        }
+        assertThrows(IllegalStateException.class, () -> users.iterator().hasNext());
+        users.close();
+    }
+
+    @Test
+    void testMemoizeConcurrentReplay() throws InterruptedException {
+        UserDAO userDAO = new UserDAO();
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger daoCount = new AtomicInteger();
+        MemoizedCursorIterator<Integer, User> users = CursorIterator
+                .<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx((Integer startId, int limit) -> {
+                    if (daoCount.incrementAndGet() == 3) {
+                        fetching.countDown();
+                        awaitUninterruptibly(release);
+                    }
+                    return userDAO.getUsersAscById(startId, limit);
+                })
+                .memoize();
+        assertEquals(20, users.stream().limit(20).count());
+        AtomicLong fullCount = new AtomicLong();
+        Thread full = new Thread(() -> fullCount.set(users.stream().count()));
+        full.start();
+        assertTrue(fetching.await(10, SECONDS));
+        // 上游正在读取第3页时, 已经记录的两页可以直接重放
+        assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertEquals(20, users.stream().limit(20).count()));
+        release.countDown();
+        full.join();
+        assertEquals(938, fullCount.get());
+        assertEquals(938, users.stream().count());
+        users.close();
+    }
+
+    @Test
+    void testNonRandomAccessPage() {
+        UserDAO userDAO = new UserDAO();
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(100)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx((Integer startId, int limit) -> new LinkedList<>(
+                        userDAO.getUsersAscById(startId, limit)));
+        iterateOnce(users);
+        Iterator<User> iterator = users.iterator();
+        for (int i = 100; i < 938; i++) {
+            assertEquals(i, iterator.next().getId());
+        }
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+    }
+
+    @Test
+    void testSpliterator() {
+        UserDAO userDAO = new UserDAO();
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(100)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx(userDAO::getUsersAscById);
+        Spliterator<User> spliterator = users.spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED));
+        assertTrue(spliterator.hasCharacteristics(Spliterator.NONNULL));
+        assertEquals(Long.MAX_VALUE, spliterator.estimateSize());
+        int[] next = {100};
+        for (int i = 0; i < 15; i++) {
+            assertTrue(spliterator.tryAdvance(user -> assertEquals(next[0]++, user.getId())));
+        }
+        // 第二页还剩5条, 再估计一页
+        assertEquals(15, spliterator.estimateSize());
+        Spliterator<User> prefix = spliterator.trySplit();
+        assertEquals(5, prefix.estimateSize());
+        assertEquals(10, spliterator.estimateSize());
+        prefix.forEachRemaining(user -> assertEquals(next[0]++, user.getId()));
+        spliterator.forEachRemaining(user -> assertEquals(next[0]++, user.getId()));
+        assertEquals(938, next[0]);
+        assertFalse(spliterator.tryAdvance(user -> { }));
+        assertEquals(0, spliterator.estimateSize());
+
+        assertEquals(range(100, 938).sum(), users.stream().parallel().mapToInt(User::getId).sum());
+        assertEquals(range(100, 938).boxed().collect(toList()),
+                users.stream().parallel().map(User::getId).collect(toList()));
+    }
+
+    @Test
+    void testHydrate() {
+        UserDAO userDAO = new UserDAO();
+        List<Integer> hydrated = synchronizedList(new ArrayList<>());
+        CursorIterator<Integer, String> names = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx(userDAO::getUsersAscById)
+                .hydrate(user -> user.getId() % 25 == 0, keys -> {
+                    assertFalse(keys.isEmpty());
+                    keys.forEach(key -> hydrated.add(key.getId()));
+                    return keys.stream().map(key -> "user" + key.getId()).collect(toList());
+                }, 2);
+        List<String> result = names.stream().collect(toList());
+        assertEquals(range(0, 938).filter(i -> i % 25 == 0).mapToObj(i -> "user" + i)
+                .collect(toList()), result);
+        assertEquals(38, hydrated.size());
+    }
+
+    @Test
+    void testProgress() {
+        UserDAO userDAO = new UserDAO();
+        long[] nanos = {0};
+        ScanProgress<Integer> progress = ScanProgress.<Integer> newBuilder()
+                .range(0, 938)
+                .window(10, SECONDS)
+                .ticker(new Ticker() {
+
+                    @Override
+                    public long read() {
+                        return nanos[0];
+                    }
+                })
+                .build();
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .progress(progress)
+                .buildEx(userDAO::getUsersAscById);
+        assertNull(progress.getCursor());
+        assertNull(progress.getEstimatedRemaining());
+        Iterator<User> iterator = users.iterator();
+        for (int i = 0; i < 470; i++) {
+            iterator.next();
+            // 每条记录耗时1毫秒
+            nanos[0] += MILLISECONDS.toNanos(1);
+        }
+        // 第47页还没有越过, 不计入
+        assertEquals(460, progress.getCursor().intValue());
+        assertEquals(46, progress.getPages());
+        assertEquals(460, progress.getRows());
+        iterator.next();
+        nanos[0] += MILLISECONDS.toNanos(1);
+        // 恢复遍历的游标是下一页的起始游标
+        assertEquals(470, progress.getCursor().intValue());
+        assertEquals(47, progress.getPages());
+        assertEquals(470, progress.getRows());
+        assertEquals(1000, progress.getRowsPerSecond(), 30);
+        assertEquals(0.5, progress.getFraction().getAsDouble(), 0.01);
+        assertEquals(469, progress.getEstimatedRemaining().toMillis(), 10);
+
+        // 每次迭代重新计数
+        assertEquals(0, users.iterator().next().getId());
+        assertNull(progress.getCursor());
+        assertEquals(0, progress.getRows());
+        assertEquals(938, users.stream().count());
+        assertEquals(94, progress.getPages());
+        assertEquals(938, progress.getRows());
+    }
+
+    @Test
+    void testBuildReusing() {
+        // 可变的享元实体，从对象池中取出复用
+        Deque<int[]> pool = new ArrayDeque<>();
+        int[] allocated = {0};
+        Set<List<int[]>> buffers = newSetFromMap(new IdentityHashMap<>());
+        FillingCursorDAO<Integer, int[]> dao = (cursor, limit, buffer) -> {
+            assertTrue(buffer.isEmpty());
+            buffers.add(buffer);
+            for (int id = cursor == null ? 0 : cursor; id < 938 && buffer.size() < limit; id++) {
+                int[] entity = pool.poll();
+                if (entity == null) {
+                    entity = new int[1];
+                    allocated[0]++;
+                }
+                entity[0] = id;
+                buffer.add(entity);
+            }
+        };
+        CursorIterator<Integer, int[]> iterator = CursorIterator.<Integer, int[]> newGenericBuilder()
+                .cursorExtractor(entity -> entity[0])
+                .bufferSize(10)
+                .recycler(pool::push)
+                .buildReusing(dao);
+        int expect = 0;
+        for (int[] entity : iterator) {
+            assertEquals(expect++, entity[0]);
+        }
+        assertEquals(938, expect);
+        assertEquals(1, buffers.size());
+        assertEquals(11, allocated[0]);
+        assertEquals(11, pool.size());
+
+        // 按页转换时每页使用新的缓冲区，不回收实体
+        buffers.clear();
+        List<Integer> ids = iterator.mapPages(page -> page.stream().map(entity -> entity[0])
+                .collect(toList())).stream().collect(toList());
+        assertEquals(range(0, 938).boxed().collect(toList()), ids);
+        assertEquals(94, buffers.size());
+
+        // 复用缓冲区时并行流不切分, 实体不会在处理过程中被回收
+        pool.clear();
+        allocated[0] = 0;
+        assertEquals(range(0, 938).boxed().collect(toList()), iterator.stream().parallel()
+                .map(entity -> entity[0]).collect(toList()));
+        assertEquals(allocated[0], pool.size());
+
+        // 第一页就遇到结束条件时, 没有交给调用方的这一页也被回收
+        CursorIterator<Integer, int[]> none = CursorIterator.<Integer, int[]> newGenericBuilder()
+                .cursorExtractor(entity -> entity[0])
+                .bufferSize(10)
+                .until(entity -> entity[0] >= 0)
+                .recycler(pool::push)
+                .buildReusing(dao);
+        assertEquals(0, none.stream().count());
+        assertEquals(allocated[0], pool.size());
+    }
+
+    @Test
+    void testFlatMapScan() {
+        UserDAO userDAO = new UserDAO();
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx((Integer cursor, int limit) -> userDAO.getUsersAscById(cursor,
+                        Math.min(limit, 40 - cursor)));
+        // 每个用户有 id % 7 * 3 个订单，订单ID为 id * 1000 + i
+        List<Integer> expected = new ArrayList<>();
+        range(0, 40).forEach(id -> range(0, id % 7 * 3).forEach(i -> expected.add(id * 1000 + i)));
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Function<User, CursorIterator<Integer, Integer>> orders = user -> CursorIterator
+                .<Integer, Integer> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(order -> order % 1000)
+                .bufferSize(4)
+                .buildEx((Integer cursor, int limit) -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleepUninterruptibly(2, MILLISECONDS);
+                    running.decrementAndGet();
+                    return range(cursor, Math.min(cursor + limit, user.getId() % 7 * 3))
+                            .mapToObj(i -> user.getId() * 1000 + i)
+                            .collect(toList());
+                });
+
+        assertEquals(expected, users.flatMapScan(orders, 8).stream().collect(toList()));
+        assertTrue(maxRunning.get() > 1);
+
+        maxRunning.set(0);
+        Semaphore permits = new Semaphore(3);
+        ExecutorService executor = newFixedThreadPool(8);
+        List<Integer> unordered = users
+                .flatMapScan(orders, executor, 8, false, permits)
+                .stream()
+                .collect(toList());
+        executor.shutdown();
+        assertEquals(expected.size(), unordered.size());
+        assertEquals(new HashSet<>(expected), new HashSet<>(unordered));
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    void testFlatMapScanNested() {
+        // 同时进行的内层遍历数超过默认执行器的线程数, 内层遍历在默认执行器上预读
+        int concurrency = Math.max(8, Runtime.getRuntime().availableProcessors() * 4) * 2;
+        UserDAO userDAO = new UserDAO();
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx((Integer cursor, int limit) -> userDAO.getUsersAscById(cursor,
+                        Math.min(limit, concurrency - cursor)));
+        Function<User, CursorIterator<Integer, Integer>> orders = user -> CursorIterator
+                .<Integer, Integer> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(order -> order % 1000)
+                .bufferSize(2)
+                .buildEx((Integer cursor, int limit) -> {
+                    sleepUninterruptibly(1, MILLISECONDS);
+                    return range(cursor, Math.min(cursor + limit, 5))
+                            .mapToObj(i -> user.getId() * 1000 + i)
+                            .collect(toList());
+                })
+                .prefetch(2);
+        List<Integer> expected = new ArrayList<>();
+        range(0, concurrency).forEach(id -> range(0, 5).forEach(i -> expected.add(id * 1000 + i)));
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertEquals(expected,
+                users.flatMapScan(orders, concurrency).stream().collect(toList())));
+
+        // 内层本身也是默认执行器上的嵌套扇出遍历时需要指定执行器
+        assertThrows(IllegalStateException.class, () -> users
+                .flatMapScan(user -> users.flatMapScan(orders, 2), 2)
+                .stream()
+                .count());
+    }
+
+    @Test
+    void testEnd() {
+        UserDAO userDAO = new UserDAO();
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger rows = new AtomicInteger();
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .end(105)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx((Integer cursor, int limit) -> {
+                    calls.incrementAndGet();
+                    return userDAO.getUsersAscById(cursor, limit);
+                });
+        assertEquals(range(0, 105).boxed().collect(toList()),
+                users.stream().map(User::getId).collect(toList()));
+        // 第11页越过结束ID后不再读取
+        assertEquals(11, calls.get());
+
+        // 结束ID传给数据访问对象
+        calls.set(0);
+        BoundedGetByCursorDAO<Integer, User> boundedDAO = (cursor, end, limit) -> {
+            calls.incrementAndGet();
+            List<User> result = userDAO.getUsersAscById(cursor, Math.min(limit, end - cursor));
+            rows.addAndGet(result.size());
+            return result;
+        };
+        users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .end(105)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx(boundedDAO);
+        assertEquals(105, users.stream().count());
+        assertEquals(11, calls.get());
+        // 每页多读一条用于推进游标, 没有读取结束ID之后的记录
+        assertEquals(10 * 11 + 5, rows.get());
+
+        // 停止条件, 以及截取页首的模式
+        CursorIterator<Integer, User> untilUsers = newBuilder()
+                .start(3)
+                .until((User user) -> user.getId() >= 47)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .build(userDAO::getUsersAscById);
+        assertEquals(range(3, 47).boxed().collect(toList()),
+                untilUsers.stream().map(User::getId).collect(toList()));
+    }
 }
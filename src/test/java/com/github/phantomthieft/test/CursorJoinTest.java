@@ -0,0 +1,145 @@
+package com.github.phantomthieft.test;
+
+import static com.github.phantomthief.util.CursorJoin.JoinType.DIFF;
+import static com.github.phantomthief.util.CursorJoin.JoinType.FULL_OUTER;
+import static com.github.phantomthief.util.CursorJoin.JoinType.INNER;
+import static com.github.phantomthief.util.CursorJoin.JoinType.LEFT;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static java.util.stream.IntStream.rangeClosed;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.util.CursorIterator;
+import com.github.phantomthief.util.CursorJoin;
+import com.github.phantomthief.util.CursorJoin.JoinType;
+import com.github.phantomthief.util.CursorJoin.Joined;
+
+/**
+ * @author agent
+ */
+class CursorJoinTest {
+
+    @Test
+    void testJoinTypes() {
+        // left: 100~937, right: 1~1005 without multiples of 7
+        assertEquals(range(100, 938).filter(i -> i % 7 != 0).boxed().collect(toList()),
+                keys(join(INNER, 0)));
+        assertEquals(range(100, 938).boxed().collect(toList()), keys(join(LEFT, 0)));
+        assertEquals(rangeClosed(1, 1005).filter(i -> i >= 100 && i < 938 || i % 7 != 0)
+                .boxed().collect(toList()), keys(join(FULL_OUTER, 2)));
+
+        List<Joined<Integer, User, User>> diff = join(DIFF, 1);
+        assertEquals(rangeClosed(1, 1005).filter(i -> (i < 100 || i >= 938) != (i % 7 == 0))
+                .boxed().collect(toList()), keys(diff));
+        for (Joined<Integer, User, User> joined : diff) {
+            if (joined.getKey() < 100 || joined.getKey() >= 938) {
+                assertNull(joined.getLeft());
+            } else {
+                assertNull(joined.getRight());
+            }
+        }
+    }
+
+    @Test
+    void testDuplicateKeys() {
+        // 实体为 {下标, 连接键}, 以下标作为游标
+        int[] leftKeys = {1, 2, 2, 2, 4, 6};
+        int[] rightKeys = {2, 2, 3, 4, 5, 6};
+        assertEquals(asList("2:L1:R0", "2:L2:R1", "4:L4:R3", "6:L5:R5"),
+                format(join(INNER, leftKeys, rightKeys).build()));
+        assertEquals(asList("1:L0:-", "2:L1:R0", "2:L2:R1", "2:L3:-", "4:L4:R3", "6:L5:R5"),
+                format(join(LEFT, leftKeys, rightKeys).build()));
+        assertEquals(asList("1:L0:-", "2:L1:R0", "2:L2:R1", "2:L3:-", "3:-:R2", "4:L4:R3",
+                "5:-:R4", "6:L5:R5"), format(join(FULL_OUTER, leftKeys, rightKeys).build()));
+        // 下标相同的一对视为一致
+        assertEquals(asList("1:L0:-", "2:L1:R0", "2:L2:R1", "2:L3:-", "3:-:R2", "4:L4:R3",
+                "5:-:R4"), format(join(DIFF, leftKeys, rightKeys)
+                        .matcher((left, right) -> left[0] == right[0])
+                        .build()));
+    }
+
+    @Test
+    void testRebuild() {
+        CursorJoin.Builder<Integer, int[], int[]> builder = join(FULL_OUTER,
+                new int[] {1, 3, 5}, new int[] {2, 3, 4}).prefetch(1);
+        List<String> expected = asList("1:L0:-", "2:-:R0", "3:L1:R1", "4:-:R2", "5:L2:-");
+        // 每次构造各自预读, 不共享已经开始的预读
+        CursorJoin<Integer, int[], int[]> first = builder.build();
+        CursorJoin<Integer, int[], int[]> second = builder.build();
+        assertEquals(expected, format(first));
+        assertEquals(expected, format(second));
+        assertEquals(expected, format(first));
+    }
+
+    @Test
+    void testUnorderedKeys() {
+        CursorJoin<Integer, int[], int[]> join = join(LEFT, new int[] {1, 3, 2},
+                new int[] {1, 2, 3}).build();
+        assertThrows(IllegalStateException.class, () -> format(join));
+    }
+
+    private CursorJoin.Builder<Integer, int[], int[]> join(JoinType type, int[] leftKeys,
+            int[] rightKeys) {
+        return CursorJoin.<Integer, int[], int[]> newBuilder()
+                .left(scan(leftKeys), entity -> entity[1])
+                .right(scan(rightKeys), entity -> entity[1])
+                .type(type);
+    }
+
+    private CursorIterator<Integer, int[]> scan(int[] keys) {
+        return CursorIterator.<Integer, int[]> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(entity -> entity[0])
+                .bufferSize(2)
+                .buildEx((Integer cursor, int limit) -> range(cursor,
+                        Math.min(cursor + limit, keys.length))
+                        .mapToObj(i -> new int[] {i, keys[i]})
+                        .collect(toList()));
+    }
+
+    private List<String> format(CursorJoin<Integer, int[], int[]> join) {
+        return join.stream()
+                .map(joined -> joined.getKey() + ":"
+                        + (joined.getLeft() == null ? "-" : "L" + joined.getLeft()[0]) + ":"
+                        + (joined.getRight() == null ? "-" : "R" + joined.getRight()[0]))
+                .collect(toList());
+    }
+
+    private List<Joined<Integer, User, User>> join(JoinType type, int prefetch) {
+        UserDAO userDAO = new UserDAO();
+        MutableDAO mutableDAO = new MutableDAO(1005);
+        for (int i = 7; i <= 1005; i += 7) {
+            mutableDAO.deleteUser(i);
+        }
+        CursorIterator<Integer, User> left = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(100)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx(userDAO::getUsersAscById);
+        CursorIterator<Integer, User> right = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(13)
+                .buildEx(mutableDAO::getByCursor);
+        CursorJoin.Builder<Integer, User, User> builder = CursorJoin
+                .<Integer, User, User> newBuilder()
+                .left(left, User::getId)
+                .right(right, User::getId)
+                .type(type);
+        if (prefetch > 0) {
+            builder = builder.prefetch(prefetch);
+        }
+        return builder.build().stream().collect(toList());
+    }
+
+    private List<Integer> keys(List<Joined<Integer, User, User>> joined) {
+        return joined.stream().map(Joined::getKey).collect(toList());
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.phantomthieft.test;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.util.CursorIterator;
+
+/**
+ * 只在 java21 profile 中通过 failsafe 在打包后的多版本 jar 上运行
+ *
+ * @author agent
+ */
+class DefaultExecutorsIT {
+
+    @Test
+    void testVirtualThreads() throws Exception {
+        UserDAO userDAO = new UserDAO();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx((cursor, limit) -> {
+                    threads.add(Thread.currentThread());
+                    return userDAO.getUsersAscById(cursor, limit);
+                });
+        List<Integer> ids = users.prefetch(2).stream().map(User::getId).collect(toList());
+        assertEquals(range(0, 938).boxed().collect(toList()), ids);
+
+        assertFalse(threads.isEmpty());
+        for (Thread thread : threads) {
+            // 测试代码按 Java 8 编译, 通过反射调用 Thread#isVirtual
+            assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+        }
+    }
+}
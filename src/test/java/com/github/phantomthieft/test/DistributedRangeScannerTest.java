@@ -0,0 +1,186 @@
+package com.github.phantomthieft.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.phantomthief.util.DistributedRangeScanner;
+import com.github.phantomthief.util.FileRangeLeaseStore;
+import com.github.phantomthief.util.InMemoryRangeLeaseStore;
+import com.github.phantomthief.util.RangeLease;
+import com.github.phantomthief.util.RangeLeaseStore;
+
+/**
+ * @author agent
+ */
+class DistributedRangeScannerTest {
+
+    private final UserDAO userDAO = new UserDAO();
+
+    @TempDir
+    Path tempDir;
+
+    private DistributedRangeScanner<Integer, User> scanner(RangeLeaseStore<Integer> store,
+            String workerId) {
+        return DistributedRangeScanner.<Integer, User> newBuilder()
+                .leaseStore(store)
+                .workerId(workerId)
+                .leaseTime(10, SECONDS)
+                .bufferSize(30)
+                .cursorExtractor(User::getId)
+                .build(userDAO::getUsersAscById);
+    }
+
+    @Test
+    void testConcurrentWorkers() throws Exception {
+        RangeLeaseStore<Integer> store = new InMemoryRangeLeaseStore<>();
+        List<Integer> points = new ArrayList<>();
+        DistributedRangeScanner.splitEvenly(0, 938, 7).forEach(p -> points.add(p.intValue()));
+        store.initialize(null, points, null);
+        ConcurrentMap<Integer, AtomicInteger> seen = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            DistributedRangeScanner<Integer, User> scanner = scanner(store, "worker-" + i);
+            futures.add(executor.submit(() -> scanner.run(user -> seen
+                    .computeIfAbsent(user.getId(), id -> new AtomicInteger()).incrementAndGet())));
+        }
+        long total = 0;
+        for (Future<Long> future : futures) {
+            total += future.get();
+        }
+        executor.shutdown();
+        assertEquals(938, total);
+        assertEquals(938, seen.size());
+        seen.values().forEach(count -> assertEquals(1, count.get()));
+        assertTrue(store.isCompleted());
+    }
+
+    @Test
+    void testTakeoverFromCheckpoint() throws Exception {
+        Path file = tempDir.resolve("leases.properties");
+        RangeLeaseStore<Integer> crashed = new FileRangeLeaseStore<>(file, String::valueOf,
+                Integer::valueOf);
+        crashed.initialize(0, DistributedRangeScanner.splitEvenly(0, 900, 3).stream()
+                .map(Long::intValue).collect(toList()), 900);
+        // 模拟一个处理到99后宕机的节点
+        RangeLease<Integer> lease = crashed.tryAcquire("crashed", 1);
+        assertNotNull(lease);
+        assertEquals(0, lease.getRangeIndex());
+        assertTrue(crashed.checkpoint(lease, 99, 1));
+        Thread.sleep(10);
+
+        RangeLeaseStore<Integer> store = new FileRangeLeaseStore<>(file, String::valueOf,
+                Integer::valueOf);
+        List<Integer> ids = new ArrayList<>();
+        long count = scanner(store, "survivor").run(user -> ids.add(user.getId()));
+        assertEquals(800, count);
+        assertEquals(100, ids.get(0).intValue());
+        assertEquals(899, ids.get(ids.size() - 1).intValue());
+        assertTrue(store.isCompleted());
+        assertNull(store.tryAcquire("another", 1000));
+
+        // 旧的租约已经被接管
+        assertFalse(crashed.checkpoint(lease, 150, 1000));
+        assertFalse(crashed.complete(lease));
+    }
+
+    @Test
+    void testReadOnlyDoesNotRewrite() throws Exception {
+        Path file = tempDir.resolve("leases.properties");
+        RangeLeaseStore<Integer> store = new FileRangeLeaseStore<>(file, String::valueOf,
+                Integer::valueOf);
+        store.initialize(0, asList(300, 600), 900);
+        // 文件被重写时手工追加的注释会丢失
+        Files.write(file, "#marker\n".getBytes(UTF_8), APPEND);
+        assertFalse(store.isCompleted());
+        assertNull(store.tryAcquire("nobody", 1000).getLastProcessed());
+        assertFalse(new String(Files.readAllBytes(file), UTF_8).contains("#marker"));
+
+        Files.write(file, "#marker\n".getBytes(UTF_8), APPEND);
+        assertFalse(store.isCompleted());
+        assertTrue(new String(Files.readAllBytes(file), UTF_8).contains("#marker"));
+    }
+
+    @Test
+    void testReleaseOnFailure() {
+        RangeLeaseStore<Integer> store = new InMemoryRangeLeaseStore<>();
+        store.initialize(null, new ArrayList<>(), null);
+        try {
+            scanner(store, "failing").run(user -> {
+                if (user.getId() == 45) {
+                    throw new IllegalStateException();
+                }
+            });
+        } catch (IllegalStateException expected) {
+            // 处理到第二页时失败
+        }
+        RangeLease<Integer> lease = store.tryAcquire("next", 1000);
+        assertNotNull(lease);
+        assertEquals(29, lease.getLastProcessed().intValue());
+        store.release(lease);
+        List<Integer> ids = new ArrayList<>();
+        scanner(store, "next").run(user -> ids.add(user.getId()));
+        assertEquals(30, ids.get(0).intValue());
+        assertEquals(908, ids.size());
+    }
+
+    @Test
+    void testRenewWhileSkipping() {
+        List<Integer> checkpoints = new ArrayList<>();
+        RangeLeaseStore<Integer> store = new InMemoryRangeLeaseStore<Integer>() {
+
+            @Override
+            public boolean checkpoint(RangeLease<Integer> lease, Integer lastProcessed,
+                    long leaseMillis) {
+                checkpoints.add(lastProcessed);
+                return super.checkpoint(lease, lastProcessed, leaseMillis);
+            }
+        };
+        DistributedRangeScanner.Builder<Integer, User> builder = DistributedRangeScanner
+                .<Integer, User> newBuilder()
+                .leaseStore(store)
+                .splitPoints(0, emptyList(), 10)
+                .workerId("skipping")
+                .bufferSize(1)
+                .cursorExtractor(User::getId);
+        // 构造之前不会修改共享的存储
+        assertNull(store.tryAcquire("early", 1000));
+        DistributedRangeScanner<Integer, User> scanner = builder.build(userDAO::getUsersAscById);
+
+        RangeLease<Integer> lease = store.tryAcquire("crashed", 1000);
+        assertNotNull(lease);
+        assertTrue(store.checkpoint(lease, 5, 1000));
+        store.release(lease);
+        checkpoints.clear();
+
+        List<Integer> ids = new ArrayList<>();
+        assertEquals(4, scanner.run(user -> ids.add(user.getId())));
+        assertEquals(asList(6, 7, 8, 9), ids);
+        // 第一页只有已经处理过的5, 整页跳过时也续约
+        assertEquals(asList(5, 6, 7, 8, 9), checkpoints);
+        assertTrue(store.isCompleted());
+    }
+}
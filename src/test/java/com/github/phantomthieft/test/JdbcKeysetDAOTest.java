@@ -0,0 +1,153 @@
+package com.github.phantomthieft.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.util.CursorIterator;
+import com.github.phantomthief.util.JdbcKeysetDAO;
+
+/**
+ * @author agent
+ */
+class JdbcKeysetDAOTest {
+
+    private final AtomicInteger prepared = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private DataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:keyset;DB_CLOSE_DELAY=-1");
+        try (Connection connection = h2.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS users");
+            statement.execute("CREATE TABLE users (group_id INT, id INT, "
+                    + "PRIMARY KEY (group_id, id))");
+            try (PreparedStatement insert = connection
+                    .prepareStatement("INSERT INTO users VALUES (?, ?)")) {
+                for (int i = 0; i < 500; i++) {
+                    insert.setInt(1, i % 7);
+                    insert.setInt(2, i);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+        dataSource = countingDataSource(h2);
+    }
+
+    /**
+     * 统计prepareStatement和关闭连接的调用次数
+     */
+    private DataSource countingDataSource(DataSource delegate) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                    Object result = invoke(method, delegate, args);
+                    if (!(result instanceof Connection)) {
+                        return result;
+                    }
+                    Connection connection = (Connection) result;
+                    return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[] { Connection.class }, (p, m, a) -> {
+                                if (m.getName().equals("prepareStatement")) {
+                                    prepared.incrementAndGet();
+                                } else if (m.getName().equals("close")) {
+                                    closed.incrementAndGet();
+                                }
+                                return invoke(m, connection, a);
+                            });
+                });
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    void testSingleKeySession() {
+        JdbcKeysetDAO<Integer, User> dao = JdbcKeysetDAO.<Integer, User> newBuilder()
+                .dataSource(dataSource)
+                .table("users")
+                .columns("id")
+                .filter("id >= 0")
+                .keyColumns("id")
+                .rowMapper(rs -> new User(rs.getInt(1)))
+                .build();
+        try (JdbcKeysetDAO<Integer, User>.Session session = dao.openSession()) {
+            CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                    .cursorExtractor(User::getId)
+                    .bufferSize(30)
+                    .buildEx(session);
+            int expect = 0;
+            for (User user : users) {
+                assertEquals(expect++, user.getId());
+            }
+            assertEquals(500, expect);
+        }
+        // 首页和后续页各准备一次, 关闭会话时归还连接
+        assertEquals(2, prepared.get());
+        assertEquals(1, closed.get());
+
+        // 直接使用时每页借用一次连接并重新准备语句
+        prepared.set(0);
+        assertEquals(10, dao.getByCursor(490, 30).size());
+        assertEquals(10, dao.getByCursor(490, 30).size());
+        assertEquals(2, prepared.get());
+        assertEquals(3, closed.get());
+    }
+
+    @Test
+    void testCompositeKey() {
+        for (boolean rowValue : new boolean[] { false, true }) {
+            JdbcKeysetDAO.Builder<int[], int[]> builder = JdbcKeysetDAO.<int[], int[]> newBuilder()
+                    .dataSource(dataSource)
+                    .table("users")
+                    .columns("group_id", "id")
+                    .keyColumns("group_id", "id")
+                    .cursorValues(key -> new Object[] { key[0], key[1] })
+                    .rowMapper(rs -> new int[] { rs.getInt(1), rs.getInt(2) })
+                    .fetchSize(16);
+            if (rowValue) {
+                builder = builder.rowValueComparison();
+            }
+            JdbcKeysetDAO<int[], int[]> dao = builder.build();
+            List<int[]> rows = new ArrayList<>();
+            CursorIterator.<int[], int[]> newGenericBuilder()
+                    .cursorExtractor(row -> row)
+                    .bufferSize(17)
+                    .buildEx(dao)
+                    .forEach(rows::add);
+            assertEquals(500, rows.size());
+            for (int i = 1; i < rows.size(); i++) {
+                int[] previous = rows.get(i - 1);
+                int[] current = rows.get(i);
+                boolean ascending = previous[0] < current[0]
+                        || previous[0] == current[0] && previous[1] < current[1];
+                assertTrue(ascending);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.phantomthieft.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.phantomthief.util.CursorIterator;
+import com.github.phantomthief.util.MappedRecordFileDAO;
+
+/**
+ * @author agent
+ */
+class MappedRecordFileDAOTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testFixedLength() throws IOException {
+        // 偶数ID，每条记录为4字节ID加4字节填充
+        Path file = tempDir.resolve("fixed.dat");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < 1000; i++) {
+                out.writeInt(i * 2);
+                out.writeInt(-1);
+            }
+        }
+        try (MappedRecordFileDAO<Integer, User> dao = MappedRecordFileDAO.<Integer, User> newBuilder()
+                .fixedLength(8)
+                .keyDecoder(record -> record.getInt(0))
+                .decoder(record -> new User(record.getInt(0)))
+                .build(file)) {
+            assertEquals(1000, dao.size());
+            List<User> page = dao.getByCursor(5, 3);
+            assertEquals(3, page.size());
+            assertEquals(6, page.get(0).getId());
+            assertEquals(10, page.get(2).getId());
+            assertTrue(dao.getByCursor(1999, 10).isEmpty());
+            assertEquals(1, dao.getByCursor(1998, 10).size());
+
+            CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                    .start(100)
+                    .cursorExtractor(User::getId)
+                    .bufferSize(37)
+                    .buildEx(dao);
+            int expect = 100;
+            for (User user : users) {
+                assertEquals(expect, user.getId());
+                expect += 2;
+            }
+            assertEquals(2000, expect);
+        }
+    }
+
+    @Test
+    void testLengthPrefixedAcrossMappings() throws IOException {
+        // 变长记录：4字节ID加上与ID相关的填充，映射步长很小，保证跨越多个映射
+        Path file = tempDir.resolve("prefixed.dat");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < 500; i++) {
+                int padding = i % 13;
+                out.writeInt(Integer.BYTES + padding);
+                out.writeInt(i * 3);
+                out.write(new byte[padding]);
+            }
+        }
+        MappedRecordFileDAO<Integer, User> dao = MappedRecordFileDAO.<Integer, User> newBuilder()
+                .lengthPrefixed()
+                .keyDecoder(record -> record.getInt(0))
+                .decoder(record -> {
+                    assertEquals(Integer.BYTES + record.getInt(0) / 3 % 13, record.remaining());
+                    return new User(record.getInt(0));
+                })
+                .indexInterval(7)
+                .mappingSize(64)
+                .build(file);
+        assertEquals(500, dao.size());
+        for (int cursor = 0; cursor < 1500; cursor += 11) {
+            List<User> page = dao.getByCursor(cursor, 5);
+            int first = (cursor + 2) / 3 * 3;
+            assertEquals(first, page.get(0).getId());
+            assertEquals(Math.min(5, (1500 - first) / 3), page.size());
+        }
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx(dao);
+        int expect = 0;
+        for (User user : users) {
+            assertEquals(expect, user.getId());
+            expect += 3;
+        }
+        assertEquals(1500, expect);
+        dao.close();
+        assertThrows(IllegalStateException.class, () -> dao.getByCursor(0, 1));
+    }
+}
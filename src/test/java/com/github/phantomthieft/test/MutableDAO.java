@@ -3,7 +3,10 @@ package com.github.phantomthieft.test;
 import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author w.vela
@@ -20,14 +23,23 @@ class MutableDAO {
         }
     }
 
-    List<User> getByCursor(int startId, int limit) {
+    synchronized List<User> getByCursor(int startId, int limit) {
         return userList.stream()
                 .filter(user -> user.getId() >= startId)
                 .limit(limit)
                 .collect(toList());
     }
 
-    boolean deleteUser(int userId) {
+    synchronized boolean deleteUser(int userId) {
         return userList.removeIf(user -> user.getId() == userId);
     }
+
+    synchronized void deleteUsers(Collection<Integer> userIds) {
+        Set<Integer> ids = new HashSet<>(userIds);
+        userList.removeIf(user -> ids.contains(user.getId()));
+    }
+
+    synchronized int size() {
+        return userList.size();
+    }
 }
@@ -0,0 +1,137 @@
+package com.github.phantomthieft.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.phantomthief.util.CursorIterator;
+import com.github.phantomthief.util.PageExporter;
+import com.github.phantomthief.util.PageExporter.ExportResult;
+
+/**
+ * @author agent
+ */
+class PageExporterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testExport() throws IOException {
+        UserDAO userDAO = new UserDAO();
+        CursorIterator<Integer, User> users = CursorIterator.<Integer, User> newGenericBuilder()
+                .start(0)
+                .cursorExtractor(User::getId)
+                .bufferSize(10)
+                .buildEx(userDAO::getUsersAscById);
+        PageExporter<User> exporter = PageExporter.<User> newBuilder()
+                .encoder((user, buffer) -> buffer.put(("{\"id\":" + user.getId() + "}\n")
+                        .getBytes(UTF_8)))
+                .directory(directory)
+                .fileNamePattern("users-%03d.ndjson")
+                .bufferSize(256)
+                .bufferCount(2)
+                .rollSize(1024)
+                .build();
+        ExportResult result = exporter.export(users.prefetch(1));
+        assertEquals(938, result.getCount());
+        assertExported(result);
+
+        // 同一个导出器再次导出, 复用缓冲区
+        ExportResult again = exporter.export(users);
+        assertEquals(938, again.getCount());
+        assertExported(again);
+    }
+
+    private void assertExported(ExportResult result) throws IOException {
+        assertTrue(result.getFiles().size() > 1);
+        List<String> lines = new ArrayList<>();
+        long bytes = 0;
+        for (Path file : result.getFiles()) {
+            assertTrue(Files.size(file) <= 1024);
+            bytes += Files.size(file);
+            lines.addAll(Files.readAllLines(file, UTF_8));
+        }
+        assertEquals(result.getBytes(), bytes);
+        assertEquals(range(0, 938).mapToObj(i -> "{\"id\":" + i + "}").collect(toList()), lines);
+    }
+
+    @Test
+    void testProgress() {
+        List<ExportResult> reports = new ArrayList<>();
+        PageExporter<User> exporter = PageExporter.<User> newBuilder()
+                .encoder((user, buffer) -> buffer.putInt(user.getId()))
+                .directory(directory)
+                .bufferSize(40)
+                .bufferCount(1)
+                .progressListener(0, MILLISECONDS, reports::add)
+                .build();
+        List<User> users = range(0, 100).mapToObj(User::new).collect(toList());
+        ExportResult result = exporter.export(users);
+        // 每写入一个缓冲区报告一次, 最后再报告一次最终结果
+        assertEquals(11, reports.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals((i + 1) * 40, reports.get(i).getBytes());
+        }
+        assertEquals(400, result.getBytes());
+        assertEquals(result.getBytes(), reports.get(10).getBytes());
+        assertEquals(100, reports.get(10).getCount());
+    }
+
+    @Test
+    void testFailureReleasesBuffers() throws IOException {
+        Path missing = directory.resolve("missing");
+        PageExporter<User> exporter = PageExporter.<User> newBuilder()
+                .encoder((user, buffer) -> {
+                    if (user.getId() < 0) {
+                        throw new IllegalArgumentException("bad user");
+                    }
+                    buffer.putInt(user.getId());
+                })
+                .directory(directory)
+                .fileNamePattern("missing/part-%05d")
+                .bufferSize(16)
+                .bufferCount(2)
+                .build();
+        List<User> users = range(0, 100).mapToObj(User::new).collect(toList());
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            // 写入失败
+            assertThrows(UncheckedIOException.class, () -> exporter.export(users));
+            Files.createDirectories(missing);
+            // 编码失败
+            assertThrows(IllegalArgumentException.class, () -> exporter.export(
+                    asList(new User(1), new User(2), new User(3), new User(4), new User(-1))));
+            // 失败时缓冲区都已经归还, 之后的导出不会阻塞
+            assertEquals(100, exporter.export(users).getCount());
+            assertEquals(100, exporter.export(users).getCount());
+        });
+    }
+
+    @Test
+    void testEntityTooLarge() {
+        PageExporter<User> exporter = PageExporter.<User> newBuilder()
+                .encoder((user, buffer) -> buffer.put(new byte[user.getId()]))
+                .directory(directory)
+                .bufferSize(16)
+                .build();
+        List<User> users = range(0, 20).mapToObj(User::new).collect(toList());
+        assertThrows(IllegalStateException.class, () -> exporter.export(users));
+    }
+}
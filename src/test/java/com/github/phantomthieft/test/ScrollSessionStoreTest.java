@@ -0,0 +1,99 @@
+package com.github.phantomthieft.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.util.CursorIterator;
+import com.github.phantomthief.util.ScrollSessionStore;
+import com.github.phantomthief.util.ScrollSessionStore.ScrollPage;
+
+/**
+ * @author agent
+ */
+class ScrollSessionStoreTest {
+
+    private final UserDAO userDAO = new UserDAO();
+    private final AtomicInteger daoCount = new AtomicInteger();
+
+    private CursorIterator<Integer, User> load(Integer cursor) {
+        return CursorIterator.<Integer, User> newGenericBuilder()
+                .start(cursor)
+                .cursorExtractor(User::getId)
+                .bufferSize(30)
+                .buildEx((Integer startId, int limit) -> {
+                    daoCount.incrementAndGet();
+                    return userDAO.getUsersAscById(startId, limit);
+                });
+    }
+
+    @Test
+    void testScroll() {
+        ScrollSessionStore<Integer, User> store = ScrollSessionStore.<Integer, User> newBuilder()
+                .cursorExtractor(User::getId)
+                .maximumSize(10)
+                .build();
+        Integer cursor = null;
+        int expect = 0;
+        int requests = 0;
+        ScrollPage<Integer, User> page;
+        do {
+            page = store.scroll("session", cursor, 10, this::load);
+            for (User user : page.getList()) {
+                assertEquals(expect++, user.getId());
+            }
+            cursor = page.getNextCursor();
+            requests++;
+        } while (page.hasMore());
+        assertNull(cursor);
+        assertEquals(938, expect);
+        assertEquals(94, requests);
+        // DAO按每页30条读取，调用次数与请求次数无关
+        assertEquals(32, daoCount.get());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void testRetryAndEviction() {
+        ScrollSessionStore<Integer, User> store = ScrollSessionStore.<Integer, User> newBuilder()
+                .cursorExtractor(User::getId)
+                .maximumSize(1)
+                .build();
+        ScrollPage<Integer, User> first = store.scroll("a", null, 10, this::load);
+        assertEquals(9, first.getNextCursor().intValue());
+        // 客户端重试同一次请求，返回相同的数据
+        ScrollPage<Integer, User> retry = store.scroll("a", null, 10, this::load);
+        assertEquals(first.getList(), retry.getList());
+        // 会话a被会话b淘汰后，从客户端传入的游标继续
+        store.scroll("b", 500, 10, this::load);
+        store.scroll("c", 600, 10, this::load);
+        assertEquals(1, store.size());
+        ScrollPage<Integer, User> second = store.scroll("a", 9, 10, this::load);
+        assertEquals(10, second.getList().get(0).getId());
+        assertTrue(second.hasMore());
+
+        ScrollPage<Integer, User> last = store.scroll("d", 929, 10, this::load);
+        assertEquals(8, last.getList().size());
+        assertFalse(last.hasMore());
+    }
+
+    @Test
+    void testNoReadAhead() {
+        ScrollSessionStore<Integer, User> store = ScrollSessionStore.<Integer, User> newBuilder()
+                .cursorExtractor(User::getId)
+                .build();
+        // 每页30条, 第三次请求恰好取完第一页, 不读取下一页
+        for (int i = 0; i < 3; i++) {
+            store.scroll("session", i == 0 ? null : i * 10 - 1, 10, this::load);
+        }
+        assertEquals(1, daoCount.get());
+        ScrollPage<Integer, User> page = store.scroll("session", 29, 10, this::load);
+        assertEquals(30, page.getList().get(0).getId());
+        assertEquals(2, daoCount.get());
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.phantomthieft.test;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.util.ScrollWindow;
+
+/**
+ * @author agent
+ */
+class ScrollWindowTest {
+
+    private final UserDAO userDAO = new UserDAO();
+    private final AtomicInteger forwardCalls = new AtomicInteger();
+    private final AtomicInteger reverseCalls = new AtomicInteger();
+
+    private List<User> forward(Integer cursor, int limit) {
+        forwardCalls.incrementAndGet();
+        return userDAO.getUsersAscById(cursor, limit);
+    }
+
+    private List<User> reverse(Integer cursor, int limit) {
+        reverseCalls.incrementAndGet();
+        return range(0, limit).map(i -> cursor - i).filter(id -> id >= 0).mapToObj(User::new)
+                .collect(toList());
+    }
+
+    private static List<Integer> ids(List<User> page) {
+        return page.stream().map(User::getId).collect(toList());
+    }
+
+    private static List<Integer> page(int index) {
+        return range(index * 10, index * 10 + 10).boxed().collect(toList());
+    }
+
+    @Test
+    void testReverseDAO() {
+        ScrollWindow<Integer, User> window = ScrollWindow.<Integer, User> newBuilder()
+                .cursorExtractor(User::getId)
+                .pageSize(10)
+                .maxPages(3)
+                .reverseDAO(this::reverse)
+                .build(this::forward, 100);
+        for (int i = 10; i < 15; i++) {
+            assertEquals(page(i), ids(window.next()));
+        }
+        assertEquals(5, forwardCalls.get());
+        assertEquals(3, window.size());
+        // 窗口内的页直接返回
+        assertEquals(page(13), ids(window.previous()));
+        assertEquals(page(12), ids(window.previous()));
+        assertEquals(0, reverseCalls.get());
+        // 越过窗口头部通过反向数据访问对象读取
+        assertEquals(page(11), ids(window.previous()));
+        assertEquals(page(10), ids(window.previous()));
+        assertEquals(page(9), ids(window.previous()));
+        assertEquals(3, reverseCalls.get());
+        // 方向反转后从窗口中返回
+        assertEquals(page(10), ids(window.next()));
+        assertEquals(page(11), ids(window.next()));
+        assertEquals(5, forwardCalls.get());
+        // 尾部被淘汰过, 重新向后读取
+        assertEquals(page(12), ids(window.next()));
+        assertEquals(6, forwardCalls.get());
+    }
+
+    @Test
+    void testWithoutReverseDAO() {
+        ScrollWindow<Integer, User> window = ScrollWindow.<Integer, User> newBuilder()
+                .cursorExtractor(User::getId)
+                .pageSize(10)
+                .maxPages(2)
+                .prefetch()
+                .build(this::forward, null);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(page(i), ids(window.next()));
+        }
+        // 淘汰的页通过保留的起始游标重新读取, 起始游标之前没有数据
+        for (int i = 2; i >= 0; i--) {
+            assertEquals(page(i), ids(window.previous()));
+        }
+        assertTrue(window.previous().isEmpty());
+        assertEquals(page(0), window.current().stream().map(User::getId).collect(toList()));
+        for (int i = 1; i < 94; i++) {
+            assertEquals(range(i * 10, Math.min(938, i * 10 + 10)).boxed().collect(toList()),
+                    ids(window.next()));
+        }
+        assertTrue(window.next().isEmpty());
+        assertEquals(page(92), ids(window.previous()));
+    }
+
+    @Test
+    void testPrefetchFailure() {
+        AtomicBoolean failing = new AtomicBoolean();
+        ScrollWindow<Integer, User> window = ScrollWindow.<Integer, User> newBuilder()
+                .cursorExtractor(User::getId)
+                .pageSize(10)
+                .prefetch(directExecutor())
+                .build((Integer cursor, int limit) -> {
+                    if (failing.getAndSet(false)) {
+                        throw new IllegalStateException("unavailable");
+                    }
+                    return forward(cursor, limit);
+                }, 0);
+        assertEquals(page(0), ids(window.next()));
+        // 返回第二页之后预读第三页失败, 异常在滚动到第三页时抛出一次
+        failing.set(true);
+        assertEquals(page(1), ids(window.next()));
+        assertThrows(IllegalStateException.class, window::next);
+        // 数据访问对象恢复后重新读取
+        assertEquals(page(2), ids(window.next()));
+        assertEquals(page(3), ids(window.next()));
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.phantomthieft.test;
+
+import static java.lang.Math.min;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.util.SegmentedCursorIteratorEx;
+import com.github.phantomthieft.test.UserDAO.ScanResult;
+
+/**
+ * @author agent
+ */
+class SegmentedCursorIteratorExTest {
+
+    private static final int SEGMENTS = 4;
+    private static final int SEGMENT_SIZE = 235;
+
+    private final UserDAO userDAO = new UserDAO();
+
+    /**
+     * 第 segment 段包含 [segment * 235, (segment + 1) * 235) 范围内的用户
+     */
+    private ScanResult scan(int segment, int total, Integer cursor) {
+        assertEquals(SEGMENTS, total);
+        int start = cursor == null ? segment * SEGMENT_SIZE : cursor;
+        int end = min((segment + 1) * SEGMENT_SIZE, 938);
+        return start >= end ? null : userDAO.scan(start, min(10, end - start));
+    }
+
+    @Test
+    void test() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Map<Integer, Integer> finished = new HashMap<>();
+        SegmentedCursorIteratorEx<User, Integer, ScanResult> users = SegmentedCursorIteratorEx
+                .<User, Integer, ScanResult> newBuilder()
+                .withSegments(SEGMENTS)
+                .withDataRetriever((segment, total, cursor) -> {
+                    threads.add(Thread.currentThread().getName());
+                    return scan(segment, total, cursor);
+                })
+                .withCursorExtractor(ScanResult::getNextCursor)
+                .withDataExtractor(s -> s.getUsers().iterator())
+                .withParallelism(SEGMENTS)
+                .withCheckpoint((segment, cursor, done) -> {
+                    if (done) {
+                        assertEquals(null, finished.put(segment, cursor));
+                    }
+                })
+                .build();
+        List<Integer> ids = users.stream().map(User::getId).sorted().collect(toList());
+        assertEquals(range(0, 938).boxed().collect(toList()), ids);
+        assertEquals(SEGMENTS, finished.size());
+        assertEquals(SEGMENT_SIZE, finished.get(0).intValue());
+        assertEquals(938, finished.get(3).intValue());
+        assertTrue(threads.stream().noneMatch(Thread.currentThread().getName()::equals));
+    }
+
+    @Test
+    void testResume() {
+        Map<Integer, Integer> cursors = new HashMap<>();
+        Set<Integer> finished = new HashSet<>();
+        SegmentedCursorIteratorEx<User, Integer, ScanResult> users = SegmentedCursorIteratorEx
+                .<User, Integer, ScanResult> newBuilder()
+                .withSegments(SEGMENTS)
+                .withDataRetriever(this::scan)
+                .withCursorExtractor(ScanResult::getNextCursor)
+                .withDataExtractor(s -> s.getUsers().iterator())
+                .withParallelism(2)
+                .withCheckpoint((segment, cursor, done) -> {
+                    cursors.put(segment, cursor);
+                    if (done) {
+                        finished.add(segment);
+                    }
+                })
+                .build();
+        Set<Integer> seen = new HashSet<>();
+        Iterator<User> iterator = users.iterator();
+        for (int i = 0; i < 500; i++) {
+            seen.add(iterator.next().getId());
+        }
+        assertTrue(finished.size() < SEGMENTS);
+
+        List<Integer> remaining = new ArrayList<>();
+        range(0, SEGMENTS).filter(segment -> !finished.contains(segment))
+                .forEach(remaining::add);
+        SegmentedCursorIteratorEx<User, Integer, ScanResult> resumed = SegmentedCursorIteratorEx
+                .<User, Integer, ScanResult> newBuilder()
+                .withSegments(SEGMENTS, remaining)
+                .withInitCursor(cursors::get)
+                .withDataRetriever(this::scan)
+                .withCursorExtractor(ScanResult::getNextCursor)
+                .withDataExtractor(s -> s.getUsers().iterator())
+                .withParallelism(2)
+                .build();
+        resumed.forEach(user -> seen.add(user.getId()));
+        assertEquals(938, seen.size());
+    }
+}